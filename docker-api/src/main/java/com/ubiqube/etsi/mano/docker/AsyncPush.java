@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Asynchronous pushes shared by {@link DockerService} and {@link HelmService}.
+ */
+final class AsyncPush {
+
+	private AsyncPush() {
+		// Nothing.
+	}
+
+	static CompletableFuture<PushResult> submit(final PushJob job, final Executor executor, final Consumer<PushJob> push) {
+		return CompletableFuture.supplyAsync(() -> PushResult.timed(job, () -> push.accept(job)), executor);
+	}
+
+	/**
+	 * @return Results in the order of the jobs; completes exceptionally if any
+	 *         push fails.
+	 */
+	static CompletableFuture<List<PushResult>> all(final List<PushJob> jobs, final Function<PushJob, CompletableFuture<PushResult>> submit) {
+		final List<CompletableFuture<PushResult>> futures = jobs.stream().map(submit).toList();
+		return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+				.thenApply(x -> futures.stream().map(CompletableFuture::join).toList());
+	}
+}
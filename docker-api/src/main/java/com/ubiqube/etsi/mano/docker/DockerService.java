@@ -17,6 +17,10 @@
 package com.ubiqube.etsi.mano.docker;
 
 import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 public interface DockerService {
 
@@ -24,4 +28,25 @@ public interface DockerService {
 
 	void verifyConnection(RegistryInformations registry);
 
+	/**
+	 * Push on {@link ForkJoinPool#commonPool()} by default; implementations
+	 * override it to use their own executor.
+	 */
+	default CompletableFuture<PushResult> sendToRegistryAsync(final PushJob job) {
+		return sendToRegistryAsync(job, ForkJoinPool.commonPool());
+	}
+
+	default CompletableFuture<PushResult> sendToRegistryAsync(final PushJob job, final Executor executor) {
+		return AsyncPush.submit(job, executor, x -> sendToRegistry(x.getInputStream(), x.getFilename(), x.getRegistry(), x.getImageName(), x.getTag()));
+	}
+
+	/**
+	 * Push all jobs concurrently; completes exceptionally if any push fails.
+	 *
+	 * @return Results in the order of the jobs.
+	 */
+	default CompletableFuture<List<PushResult>> sendToRegistryAsync(final List<PushJob> jobs) {
+		return AsyncPush.all(jobs, this::sendToRegistryAsync);
+	}
+
 }
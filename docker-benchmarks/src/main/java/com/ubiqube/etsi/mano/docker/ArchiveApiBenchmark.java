@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.compress.archivers.tar.TarFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link ArchiveApi} lookups and searches on a tar with many entries, and the
+ * cost of opening and indexing it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArchiveApiBenchmark {
+	@Param({ "1000", "20000" })
+	private int entries;
+
+	private File file;
+	private TarFile tarFile;
+	private ArchiveApi archive;
+	private String existing;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		file = Files.createTempFile("bench", ".tar").toFile();
+		BenchmarkData.manyEntries(file, entries);
+		tarFile = new TarFile(file);
+		archive = new ArchiveApi(tarFile);
+		existing = BenchmarkData.entryName(entries / 2);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		tarFile.close();
+		Files.delete(file.toPath());
+	}
+
+	@Benchmark
+	public boolean contains() {
+		return archive.contains(existing);
+	}
+
+	@Benchmark
+	public boolean containsMissing() {
+		return archive.contains("missing/file" + (next++ % 1000));
+	}
+
+	@Benchmark
+	public long getSize() {
+		return archive.getSize(existing);
+	}
+
+	@Benchmark
+	public List<String> searchSuffix() {
+		return archive.search("file" + (entries - 1) + ".yaml");
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public ArchiveApi open() throws IOException {
+		try (TarFile tf = new TarFile(file)) {
+			return new ArchiveApi(tf);
+		}
+	}
+}
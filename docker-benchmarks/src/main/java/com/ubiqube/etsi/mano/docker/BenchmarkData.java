@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+/**
+ * Synthetic inputs for the benchmarks.
+ */
+final class BenchmarkData {
+
+	private BenchmarkData() {
+		// Nothing.
+	}
+
+	/**
+	 * Half text, half random: compresses a bit, like most layers.
+	 */
+	static byte[] sample(final int size, final long seed) {
+		final Random rnd = new Random(seed);
+		final byte[] ret = new byte[size];
+		rnd.nextBytes(ret);
+		final byte[] text = ("sample-" + seed + " lorem ipsum dolor sit amet ").getBytes(StandardCharsets.UTF_8);
+		for (int i = 0; i < (size / 2); i++) {
+			ret[i] = text[i % text.length];
+		}
+		return ret;
+	}
+
+	/**
+	 * A tar of {@code count} small files spread in directories.
+	 */
+	static void manyEntries(final File target, final int count) throws IOException {
+		try (OutputStream fos = new FileOutputStream(target);
+				TarArchiveOutputStream taos = new TarArchiveOutputStream(fos)) {
+			taos.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+			final byte[] content = sample(256, count);
+			for (int i = 0; i < count; i++) {
+				file(taos, entryName(i), content);
+			}
+			taos.finish();
+		}
+	}
+
+	static String entryName(final int i) {
+		return "dir" + (i % 100) + "/sub" + (i % 7) + "/file" + i + (i % 3 == 0 ? ".yaml" : ".txt");
+	}
+
+	/**
+	 * Legacy {@code docker save} archive with uncompressed layers.
+	 */
+	static void dockerSave(final File target, final int layers, final int layerSize) throws IOException {
+		final List<String> layerFiles = new ArrayList<>();
+		final List<String> diffIds = new ArrayList<>();
+		try (OutputStream fos = new FileOutputStream(target);
+				TarArchiveOutputStream taos = new TarArchiveOutputStream(fos)) {
+			for (int i = 0; i < layers; i++) {
+				final byte[] layer = sample(layerSize, i);
+				file(taos, "layer" + i + "/layer.tar", layer);
+				layerFiles.add("\"layer" + i + "/layer.tar\"");
+				diffIds.add("\"sha256:" + Registry.buildSha256(layer) + "\"");
+			}
+			final byte[] config = config(diffIds);
+			final String configName = Registry.buildSha256(config) + ".json";
+			file(taos, configName, config);
+			final String manifest = "[{\"Config\":\"" + configName + "\",\"RepoTags\":[\"bench:latest\"],\"Layers\":[" + String.join(",", layerFiles) + "]}]";
+			file(taos, "manifest.json", manifest.getBytes(StandardCharsets.UTF_8));
+			taos.finish();
+		} catch (final NoSuchAlgorithmException e) {
+			throw new DockerApiException(e);
+		}
+	}
+
+	/**
+	 * Single platform OCI layout with gzipped layers.
+	 */
+	static void ociLayout(final File target, final int layers, final int layerSize) throws IOException {
+		final List<String> descriptors = new ArrayList<>();
+		final List<String> diffIds = new ArrayList<>();
+		try (OutputStream fos = new FileOutputStream(target);
+				TarArchiveOutputStream taos = new TarArchiveOutputStream(fos)) {
+			for (int i = 0; i < layers; i++) {
+				final byte[] layer = sample(layerSize, i);
+				final byte[] gz = gzip(layer);
+				final String digest = Registry.buildSha256(gz);
+				file(taos, "blobs/sha256/" + digest, gz);
+				descriptors.add(descriptor("application/vnd.oci.image.layer.v1.tar+gzip", digest, gz.length));
+				diffIds.add("\"sha256:" + Registry.buildSha256(layer) + "\"");
+			}
+			final byte[] config = config(diffIds);
+			final String configDigest = Registry.buildSha256(config);
+			file(taos, "blobs/sha256/" + configDigest, config);
+			final byte[] manifest = ("{\"schemaVersion\":2,\"mediaType\":\"application/vnd.oci.image.manifest.v1+json\",\"config\":"
+					+ descriptor("application/vnd.oci.image.config.v1+json", configDigest, config.length)
+					+ ",\"layers\":[" + String.join(",", descriptors) + "]}").getBytes(StandardCharsets.UTF_8);
+			final String manifestDigest = Registry.buildSha256(manifest);
+			file(taos, "blobs/sha256/" + manifestDigest, manifest);
+			final String index = "{\"schemaVersion\":2,\"manifests\":[" + descriptor("application/vnd.oci.image.manifest.v1+json", manifestDigest, manifest.length) + "]}";
+			file(taos, "index.json", index.getBytes(StandardCharsets.UTF_8));
+			file(taos, "oci-layout", "{\"imageLayoutVersion\":\"1.0.0\"}".getBytes(StandardCharsets.UTF_8));
+			taos.finish();
+		} catch (final NoSuchAlgorithmException e) {
+			throw new DockerApiException(e);
+		}
+	}
+
+	private static byte[] config(final List<String> diffIds) {
+		return ("{\"architecture\":\"amd64\",\"os\":\"linux\",\"config\":{},\"rootfs\":{\"type\":\"layers\",\"diff_ids\":[" + String.join(",", diffIds) + "]}}")
+				.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String descriptor(final String mediaType, final String hash, final long size) {
+		return "{\"mediaType\":\"" + mediaType + "\",\"digest\":\"sha256:" + hash + "\",\"size\":" + size + "}";
+	}
+
+	private static byte[] gzip(final byte[] content) throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (GZIPOutputStream gos = new GZIPOutputStream(baos)) {
+			gos.write(content);
+		}
+		return baos.toByteArray();
+	}
+
+	private static void file(final TarArchiveOutputStream taos, final String name, final byte[] content) throws IOException {
+		final TarArchiveEntry entry = new TarArchiveEntry(name);
+		entry.setSize(content.length);
+		taos.putArchiveEntry(entry);
+		taos.write(content);
+		taos.closeArchiveEntry();
+	}
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH entry point, writing the results as JSON in
+ * {@code target/jmh-result.json} unless {@code -rf} or {@code -rff} are given.
+ * Other arguments are passed to JMH, ie: {@code -f 1 -wi 2 -i 3 Gzip}.
+ */
+public final class BenchmarkRunner {
+
+	private BenchmarkRunner() {
+		// Nothing.
+	}
+
+	public static void main(final String[] args) throws RunnerException, CommandLineOptionException {
+		final CommandLineOptions cli = new CommandLineOptions(args);
+		final OptionsBuilder builder = new OptionsBuilder();
+		builder.parent(cli);
+		if (!cli.getResultFormat().hasValue()) {
+			builder.resultFormat(ResultFormatType.JSON);
+		}
+		if (!cli.getResult().hasValue()) {
+			builder.result("target/jmh-result.json");
+		}
+		new Runner(builder.build()).run();
+	}
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.compress.archivers.tar.TarFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Opening a {@code docker save} archive and an OCI layout: tar indexing and
+ * manifest / config parsing, without any push.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContainerTarFileBenchmark {
+	@Param({ "5", "50" })
+	private int layers;
+
+	private File docker;
+	private File oci;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		docker = Files.createTempFile("bench-docker", ".tar").toFile();
+		oci = Files.createTempFile("bench-oci", ".tar").toFile();
+		BenchmarkData.dockerSave(docker, layers, 64 * 1024);
+		BenchmarkData.ociLayout(oci, layers, 64 * 1024);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.delete(docker.toPath());
+		Files.delete(oci.toPath());
+	}
+
+	@Benchmark
+	public ContainerTarFile dockerTarFile() throws IOException {
+		try (TarFile tf = new TarFile(docker)) {
+			return new DockerTarFile(tf);
+		}
+	}
+
+	@Benchmark
+	public ContainerTarFile ociTarFile() throws IOException {
+		try (TarFile tf = new TarFile(oci)) {
+			return new OciTarFile(tf);
+		}
+	}
+}
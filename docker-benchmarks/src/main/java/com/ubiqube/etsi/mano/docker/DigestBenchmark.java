@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The digest helpers of {@link Registry} and {@link OciHelmTarFile}, on config
+ * sized inputs; {@code bytesToHex} alone shows the formatting overhead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DigestBenchmark {
+	@Param({ "1024", "65536" })
+	private int size;
+
+	private byte[] data;
+	private String json;
+	private byte[] hash;
+
+	@Setup
+	public void setup() throws NoSuchAlgorithmException {
+		data = BenchmarkData.sample(size, 2);
+		json = new String(data, StandardCharsets.ISO_8859_1);
+		hash = MessageDigest.getInstance("SHA-256").digest(data);
+	}
+
+	@Benchmark
+	public String registryBuildSha256() throws NoSuchAlgorithmException {
+		return Registry.buildSha256(data);
+	}
+
+	@Benchmark
+	public String ociHelmToSha256() {
+		return OciHelmTarFile.toSha256(json);
+	}
+
+	@Benchmark
+	public String bytesToHex() {
+		return OciHelmTarFile.bytesToHex(hash);
+	}
+}
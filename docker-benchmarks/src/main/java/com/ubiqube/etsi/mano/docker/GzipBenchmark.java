@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Gzip of a 4MiB sample: the pull model of {@link GzipCompressingInputStream}
+ * against the push model of {@link GZIPOutputStream}, at the same buffer size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GzipBenchmark {
+	@Param({ "512", "8192", "65536" })
+	private int bufferSize;
+
+	private byte[] data;
+
+	@Setup
+	public void setup() {
+		data = BenchmarkData.sample(4 * 1024 * 1024, 1);
+	}
+
+	@Benchmark
+	public long gzipCompressingInputStream() throws IOException {
+		try (InputStream is = new GzipCompressingInputStream(new ByteArrayInputStream(data), bufferSize)) {
+			return is.transferTo(OutputStream.nullOutputStream());
+		}
+	}
+
+	@Benchmark
+	public long gzipOutputStream() throws IOException {
+		try (InputStream is = new ByteArrayInputStream(data);
+				OutputStream os = new GZIPOutputStream(OutputStream.nullOutputStream(), bufferSize)) {
+			return is.transferTo(os);
+		}
+	}
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.google.cloud.tools.jib.http;
+
+/**
+ * Access to the headers of a {@link Request}, the builder only knows a few of
+ * them. It is in Jib's package because {@code Request.getHeaders()} is
+ * package-private; only {@code Content-Range} of chunked uploads goes through
+ * it. Jib is used on the class path, an upgrade removing it breaks the build.
+ */
+public final class RequestHeaders {
+
+	private RequestHeaders() {
+		// Nothing.
+	}
+
+	public static Request with(final Request request, final String name, final String value) {
+		request.getHeaders().set(name, value);
+		return request;
+	}
+}
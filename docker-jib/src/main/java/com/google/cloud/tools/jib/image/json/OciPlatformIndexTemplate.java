@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.google.cloud.tools.jib.image.json;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * An OCI image index where each manifest descriptor is kept as found in the
+ * archive, so the platform variant, features and annotations survive.
+ */
+public class OciPlatformIndexTemplate implements ManifestTemplate {
+
+	/** The OCI image index media type. */
+	public static final String MEDIA_TYPE = "application/vnd.oci.image.index.v1+json";
+
+	private final int schemaVersion = 2;
+
+	@SuppressWarnings("unused")
+	private final String mediaType = MEDIA_TYPE;
+
+	/** The manifest descriptors. */
+	private final List<ObjectNode> manifests = new ArrayList<>();
+
+	@Override
+	public int getSchemaVersion() {
+		return schemaVersion;
+	}
+
+	@Override
+	public String getManifestMediaType() {
+		return MEDIA_TYPE;
+	}
+
+	public List<ObjectNode> getManifests() {
+		return Collections.unmodifiableList(manifests);
+	}
+
+	public void addManifest(final ObjectNode descriptor) {
+		manifests.add(descriptor);
+	}
+}
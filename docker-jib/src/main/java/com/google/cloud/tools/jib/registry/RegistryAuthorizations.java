@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.google.cloud.tools.jib.registry;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.StringJoiner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.tools.jib.api.Credential;
+import com.google.cloud.tools.jib.api.RegistryAuthenticationFailedException;
+import com.google.cloud.tools.jib.api.RegistryException;
+import com.google.cloud.tools.jib.http.Authorization;
+import com.google.cloud.tools.jib.http.FailoverHttpClient;
+import com.google.cloud.tools.jib.http.Request;
+import com.google.cloud.tools.jib.http.Response;
+import com.google.cloud.tools.jib.http.ResponseException;
+
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Obtain the {@link Authorization} a {@link RegistryClient} would use, for
+ * requests the client does not offer.
+ * <p>
+ * This is the only class of ours in this Jib package, and it only exposes
+ * public methods. It is here to reach the package-private
+ * {@link RegistryAuthenticator} and {@link RegistryEndpointRequestProperties},
+ * so tokens are asked like Jib does (OAuth2, service, scopes). Jib is used on
+ * the class path, not as a module; an upgrade changing them breaks the build,
+ * not a running push.
+ */
+public final class RegistryAuthorizations {
+	private static final Pattern CHALLENGE_PARAM = Pattern.compile("(\\w+)=\"([^\"]*)\"");
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private RegistryAuthorizations() {
+		// Nothing.
+	}
+
+	/**
+	 * {@code GET /v2/} without credentials. The authentication method of a
+	 * registry does not change, it is asked once per session.
+	 *
+	 * @param host Registry {@code host[:port]}.
+	 * @return The {@code WWW-Authenticate} challenge, empty for an anonymous
+	 *         registry.
+	 */
+	public static Optional<String> challenge(final FailoverHttpClient fhc, final RegistryClient client, final String host) throws IOException {
+		try {
+			fhc.get(baseUrl(host), Request.builder().setUserAgent(client.getUserAgent()).build()).close();
+			return Optional.empty();
+		} catch (final ResponseException e) {
+			final String header = e.getHeaders().getAuthenticate();
+			if ((e.getStatusCode() != 401) || (null == header)) {
+				throw e;
+			}
+			return Optional.of(header);
+		}
+	}
+
+	/**
+	 * @param challenge   The registry challenge, see
+	 *                    {@link #challenge(FailoverHttpClient, RegistryClient, String)}.
+	 * @param host        Registry {@code host[:port]}.
+	 * @param imageName   Repository to push to.
+	 * @param sourceImage Repository to mount from, or null.
+	 * @return Empty for an anonymous registry.
+	 */
+	public static Optional<Authorization> forPush(final FailoverHttpClient fhc, final RegistryClient client, final Optional<String> challenge, final String host, final String imageName, @Nullable final String sourceImage,
+			@Nullable final Credential credential) throws RegistryException {
+		if (challenge.isEmpty()) {
+			return Optional.empty();
+		}
+		final String header = challenge.get();
+		if (header.regionMatches(true, 0, "basic", 0, 5)) {
+			return Optional.ofNullable(credential).map(x -> Authorization.fromBasicCredentials(x.getUsername(), x.getPassword()));
+		}
+		final RegistryEndpointRequestProperties props = new RegistryEndpointRequestProperties(host, imageName, sourceImage);
+		final RegistryAuthenticator authenticator = RegistryAuthenticator.fromAuthenticationMethod(header, props, client.getUserAgent(), fhc)
+				.orElseThrow(() -> new RegistryAuthenticationFailedException(host, imageName, "Unsupported authentication: " + header));
+		return Optional.of(authenticator.authenticatePush(credential));
+	}
+
+	/**
+	 * Check the registry answers and accepts the credential: {@code GET /v2/},
+	 * plus a token request without scope for a bearer registry, like a
+	 * {@code docker login}; no repository is assumed to exist.
+	 *
+	 * @param host       Registry {@code host[:port]}.
+	 * @param credential Credential, or null for an anonymous registry.
+	 */
+	public static void check(final FailoverHttpClient fhc, final String host, @Nullable final Credential credential, final String userAgent) throws IOException, RegistryException {
+		final Request.Builder request = Request.builder().setUserAgent(userAgent);
+		if (null != credential) {
+			request.setAuthorization(Authorization.fromBasicCredentials(credential.getUsername(), credential.getPassword()));
+		}
+		try {
+			fhc.get(baseUrl(host), request.build()).close();
+		} catch (final ResponseException e) {
+			final String header = e.getHeaders().getAuthenticate();
+			if ((e.getStatusCode() != 401) || (null == header) || header.regionMatches(true, 0, "basic", 0, 5)) {
+				throw e;
+			}
+			if (token(fhc, userAgent, header, null, credential).isEmpty()) {
+				throw new RegistryAuthenticationFailedException(host, "", "Unsupported authentication: " + header);
+			}
+		}
+	}
+
+	/**
+	 * Like the {@link RegistryClient}, https first: the client fails over to
+	 * http for an insecure registry.
+	 */
+	private static URL baseUrl(final String host) throws MalformedURLException {
+		return URI.create("https://" + host + "/v2/").toURL();
+	}
+
+	/**
+	 * Answer the challenge of a 401, for requests a push token does not cover,
+	 * ie: a manifest delete.
+	 *
+	 * @param challenge    The {@code WWW-Authenticate} header.
+	 * @param defaultScope Scope asked when the challenge does not give one, ie:
+	 *                     {@code repository:name:delete}.
+	 * @return Empty when there is nothing to answer with.
+	 */
+	public static Optional<Authorization> forChallenge(final FailoverHttpClient fhc, final RegistryClient client, final String challenge, final String defaultScope, @Nullable final Credential credential) throws IOException {
+		if (challenge.regionMatches(true, 0, "basic", 0, 5)) {
+			return Optional.ofNullable(credential).map(x -> Authorization.fromBasicCredentials(x.getUsername(), x.getPassword()));
+		}
+		return token(fhc, client.getUserAgent(), challenge, defaultScope, credential);
+	}
+
+	/**
+	 * @param defaultScope Scope asked when the challenge does not give one, null
+	 *                     to ask none.
+	 */
+	private static Optional<Authorization> token(final FailoverHttpClient fhc, final String userAgent, final String challenge, @Nullable final String defaultScope, @Nullable final Credential credential) throws IOException {
+		if (!challenge.regionMatches(true, 0, "bearer", 0, 6)) {
+			return Optional.empty();
+		}
+		final Map<String, String> params = new HashMap<>();
+		final Matcher m = CHALLENGE_PARAM.matcher(challenge);
+		while (m.find()) {
+			params.put(m.group(1).toLowerCase(Locale.ROOT), m.group(2));
+		}
+		final String realm = params.get("realm");
+		if (null == realm) {
+			return Optional.empty();
+		}
+		final StringJoiner query = new StringJoiner("&", realm.contains("?") ? "&" : "?", "").setEmptyValue("");
+		Optional.ofNullable(params.get("service")).ifPresent(x -> query.add("service=" + encode(x)));
+		Optional.ofNullable(params.getOrDefault("scope", defaultScope)).ifPresent(x -> query.add("scope=" + encode(x)));
+		final String url = realm + query;
+		final Request.Builder request = Request.builder().setUserAgent(userAgent);
+		if (null != credential) {
+			request.setAuthorization(Authorization.fromBasicCredentials(credential.getUsername(), credential.getPassword()));
+		}
+		try (Response res = fhc.get(URI.create(url).toURL(), request.build())) {
+			final JsonNode body = MAPPER.readTree(res.getBody());
+			final String token = body.path("token").asText(body.path("access_token").asText(null));
+			return Optional.ofNullable(token).map(Authorization::fromBearerToken);
+		}
+	}
+
+	private static String encode(final String str) {
+		return URLEncoder.encode(str, StandardCharsets.UTF_8);
+	}
+}
@@ -17,36 +17,91 @@
 package com.ubiqube.etsi.mano.docker;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.commons.compress.archivers.EntryStreamOffsets;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarFile;
 
+import com.google.cloud.tools.jib.api.DescriptorDigest;
+
 public class ArchiveApi {
 
 	private final TarFile tf;
+	/** The file behind the archive, null if unknown. */
+	private final Path file;
+	/** TarFile entry streams share one channel: a read is a position + read pair. */
+	private final Lock lock = new ReentrantLock();
+
+	/** Entries by name, the first one wins. */
+	private final Map<String, TarArchiveEntry> byName = new HashMap<>();
+	/** Positions of files, by reversed name: a suffix search is a prefix range. */
+	private final NavigableMap<String, List<Integer>> byReversedName = new TreeMap<>();
 
 	public ArchiveApi(final TarFile tf) {
+		this(tf, null);
+	}
+
+	/**
+	 * @param file The file {@code tf} was opened from, allows to send entries as
+	 *             file regions.
+	 */
+	public ArchiveApi(final TarFile tf, final Path file) {
 		this.tf = tf;
+		this.file = file;
+		final List<TarArchiveEntry> entries = tf.getEntries();
+		for (int i = 0; i < entries.size(); i++) {
+			final TarArchiveEntry entry = entries.get(i);
+			byName.putIfAbsent(entry.getName(), entry);
+			if (entry.isFile()) {
+				byReversedName.computeIfAbsent(reverse(entry.getName()), x -> new ArrayList<>()).add(i);
+			}
+		}
 	}
 
 	public InputStream getInputStream(final String path) {
 		final TarArchiveEntry index = findEntry(path).orElseThrow(() -> new DockerException("Unable to find " + path + ", in tar file."));
 		try {
-			return tf.getInputStream(index);
+			return new LockedInputStream(tf.getInputStream(index), lock);
 		} catch (final IOException e) {
 			throw new DockerApiException(e);
 		}
 	}
 
+	public long getSize(final String path) {
+		return findEntry(path).map(TarArchiveEntry::getSize).orElseThrow(() -> new DockerException("Unable to find " + path + ", in tar file."));
+	}
+
 	private Optional<TarArchiveEntry> findEntry(final String entry) {
-		return tf.getEntries()
-				.stream()
-				.filter(x -> entry.equals(x.getName()))
-				.findFirst();
+		return Optional.ofNullable(byName.get(entry));
+	}
+
+	/**
+	 * @return The entry as a region of the archive file, when it is stored as is.
+	 */
+	public Optional<FileRegionBlob> getRegion(final String path, final DescriptorDigest digest) {
+		if (null == file) {
+			return Optional.empty();
+		}
+		return findEntry(path)
+				.filter(x -> x.isFile() && !x.isSparse() && (x.getDataOffset() != EntryStreamOffsets.OFFSET_UNKNOWN))
+				.map(x -> new FileRegionBlob(file, x.getDataOffset(), x.getSize(), digest));
+	}
+
+	public boolean contains(final String path) {
+		return byName.containsKey(path);
 	}
 
 	public byte[] getContent(final String path) {
@@ -64,11 +119,61 @@ public class ArchiveApi {
 		return tf.getEntries();
 	}
 
+	/**
+	 * @return Files ending with {@code string}, in archive order.
+	 */
 	public List<String> search(final String string) {
-		return tf.getEntries().stream().filter(TarArchiveEntry::isFile)
-				.filter(x -> x.getName().endsWith(string))
-				.map(TarArchiveEntry::getName)
+		final String prefix = reverse(string);
+		final List<TarArchiveEntry> entries = tf.getEntries();
+		return byReversedName.subMap(prefix, true, prefix + Character.MAX_VALUE, false)
+				.values()
+				.stream()
+				.flatMap(List::stream)
+				.sorted()
+				.map(x -> entries.get(x).getName())
 				.toList();
 	}
 
+	private static String reverse(final String str) {
+		return new StringBuilder(str).reverse().toString();
+	}
+
+	private static class LockedInputStream extends FilterInputStream {
+		private final Lock lock;
+
+		LockedInputStream(final InputStream in, final Lock lock) {
+			super(in);
+			this.lock = lock;
+		}
+
+		@Override
+		public int read() throws IOException {
+			lock.lock();
+			try {
+				return super.read();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			lock.lock();
+			try {
+				return super.read(b, off, len);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public long skip(final long n) throws IOException {
+			lock.lock();
+			try {
+				return super.skip(n);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
 }
@@ -0,0 +1,33 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.util.Locale;
+
+/**
+ * Kind of artifact being pushed, used to tag the metrics.
+ */
+public enum ArtifactType {
+	DOCKER,
+	OCI,
+	HELM,
+	HELM_OCI;
+
+	public String getTag() {
+		return name().toLowerCase(Locale.ROOT);
+	}
+}
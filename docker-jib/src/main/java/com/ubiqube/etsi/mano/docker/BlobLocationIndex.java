@@ -0,0 +1,262 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.cloud.tools.jib.api.DescriptorDigest;
+
+/**
+ * Remember which repositories of a registry were recently confirmed to hold a
+ * blob. It avoids asking the registry again, and allows to mount the blob from
+ * a sibling repository instead of uploading it. Entries expire after a TTL, the
+ * index can be saved to a file to survive a restart.
+ */
+public class BlobLocationIndex {
+	private static final Logger LOG = LoggerFactory.getLogger(BlobLocationIndex.class);
+	public static final Duration DEFAULT_TTL = Duration.ofMinutes(10);
+	private static final int DEFAULT_MAX_ENTRIES = 10_000;
+	private static final int MAX_REPOSITORIES = 16;
+	private static final BlobLocationIndex SHARED = new BlobLocationIndex(DEFAULT_MAX_ENTRIES, DEFAULT_TTL, null);
+	private static final Map<Path, BlobLocationIndex> PERSISTENT = new ConcurrentHashMap<>();
+
+	private final Lock lock = new ReentrantLock();
+	private final Map<Key, Location> index;
+	private final long ttlMillis;
+	private final Path file;
+
+	public BlobLocationIndex(final int maxEntries) {
+		this(maxEntries, DEFAULT_TTL, null);
+	}
+
+	/**
+	 * @param file File to load and save the index, or null.
+	 */
+	public BlobLocationIndex(final int maxEntries, final Duration ttl, final Path file) {
+		this.index = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Key, Location> eldest) {
+				return size() > maxEntries;
+			}
+		};
+		this.ttlMillis = ttl.toMillis();
+		this.file = file;
+		if ((null != file) && Files.exists(file)) {
+			load(file);
+		}
+	}
+
+	public static BlobLocationIndex shared() {
+		return SHARED;
+	}
+
+	/**
+	 * One index per file in the JVM.
+	 */
+	public static BlobLocationIndex persistent(final Path file) {
+		return PERSISTENT.computeIfAbsent(file.toAbsolutePath(), x -> new BlobLocationIndex(DEFAULT_MAX_ENTRIES, DEFAULT_TTL, x));
+	}
+
+	public void record(final String server, final String repository, final DescriptorDigest digest, final long size) {
+		record(server, repository, digest, size, System.currentTimeMillis());
+	}
+
+	private void record(final String server, final String repository, final DescriptorDigest digest, final long size, final long confirmedAt) {
+		lock.lock();
+		try {
+			final Location loc = index.computeIfAbsent(new Key(server, digest), k -> new Location(size, new LinkedHashMap<>()));
+			loc.repositories().remove(repository);
+			loc.repositories().put(repository, confirmedAt);
+			if (loc.repositories().size() > MAX_REPOSITORIES) {
+				loc.repositories().remove(loc.repositories().keySet().iterator().next());
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return The size of the blob if it was confirmed in {@code repository}
+	 *         during the TTL.
+	 */
+	public Optional<Long> getSize(final String server, final String repository, final DescriptorDigest digest) {
+		lock.lock();
+		try {
+			final Location loc = index.get(new Key(server, digest));
+			if (null == loc) {
+				return Optional.empty();
+			}
+			final Long confirmedAt = loc.repositories().get(repository);
+			if ((null == confirmedAt) || isExpired(confirmedAt)) {
+				return Optional.empty();
+			}
+			return Optional.of(loc.size());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return The most recent repository, other than {@code repository}, known
+	 *         to hold the blob.
+	 */
+	public Optional<Source> find(final String server, final String repository, final DescriptorDigest digest) {
+		lock.lock();
+		try {
+			final Location loc = index.get(new Key(server, digest));
+			if (null == loc) {
+				return Optional.empty();
+			}
+			return loc.repositories().entrySet().stream()
+					.filter(x -> !x.getKey().equals(repository) && !isExpired(x.getValue()))
+					.reduce((a, b) -> b)
+					.map(x -> new Source(x.getKey(), loc.size()));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void forget(final String server, final DescriptorDigest digest) {
+		lock.lock();
+		try {
+			index.remove(new Key(server, digest));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Forget that {@code repository} holds the blob.
+	 */
+	public void forget(final String server, final String repository, final DescriptorDigest digest) {
+		lock.lock();
+		try {
+			final Key key = new Key(server, digest);
+			final Location loc = index.get(key);
+			if (null != loc) {
+				loc.repositories().remove(repository);
+				if (loc.repositories().isEmpty()) {
+					index.remove(key);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Forget every blob of a repository, ie: after a manifest is deleted, the
+	 * garbage collector of the registry may remove them.
+	 */
+	public void forgetRepository(final String server, final String repository) {
+		lock.lock();
+		try {
+			index.entrySet().removeIf(x -> x.getKey().server().equals(server)
+					&& (null != x.getValue().repositories().remove(repository))
+					&& x.getValue().repositories().isEmpty());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean isExpired(final long confirmedAt) {
+		return (System.currentTimeMillis() - confirmedAt) > ttlMillis;
+	}
+
+	/**
+	 * Write the index to its file, if any.
+	 */
+	public void save() {
+		if (null == file) {
+			return;
+		}
+		lock.lock();
+		try {
+			final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+			try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+				for (final Map.Entry<Key, Location> e : index.entrySet()) {
+					for (final Map.Entry<String, Long> repo : e.getValue().repositories().entrySet()) {
+						if (isExpired(repo.getValue())) {
+							continue;
+						}
+						w.write(String.join("\t", e.getKey().server(), repo.getKey(), e.getKey().digest().toString(), Long.toString(e.getValue().size()), Long.toString(repo.getValue())));
+						w.newLine();
+					}
+				}
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (final IOException e) {
+			throw new DockerApiException(e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void load(final Path path) {
+		try (BufferedReader r = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = r.readLine()) != null) {
+				final String[] f = line.split("\t");
+				if (f.length != 5) {
+					continue;
+				}
+				final long confirmedAt = Long.parseLong(f[4]);
+				if (!isExpired(confirmedAt)) {
+					record(f[0], f[1], DescriptorDigest.fromDigest(f[2]), Long.parseLong(f[3]), confirmedAt);
+				}
+			}
+		} catch (IOException | DigestException | NumberFormatException e) {
+			LOG.warn("Unable to load blob index {}, starting empty.", path);
+			LOG.trace("", e);
+			index.clear();
+		}
+	}
+
+	private record Key(String server, DescriptorDigest digest) {
+		//
+	}
+
+	/**
+	 * @param repositories Repository to confirmation time, oldest first.
+	 */
+	private record Location(long size, LinkedHashMap<String, Long> repositories) {
+		//
+	}
+
+	public record Source(String repository, long size) {
+		//
+	}
+}
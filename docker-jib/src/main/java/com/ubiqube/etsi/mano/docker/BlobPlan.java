@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.cloud.tools.jib.api.DescriptorDigest;
+
+/**
+ * Result of a batch existence check: which blobs are already in the registry
+ * and which ones have to be uploaded.
+ */
+public class BlobPlan {
+	private final Map<DescriptorDigest, Long> sizes = new ConcurrentHashMap<>();
+	private final List<DescriptorDigest> missing;
+
+	public BlobPlan(final Map<DescriptorDigest, Long> existing, final List<DescriptorDigest> missing) {
+		this.sizes.putAll(existing);
+		this.missing = missing;
+	}
+
+	public boolean isMissing(final DescriptorDigest digest) {
+		return !sizes.containsKey(digest);
+	}
+
+	public List<DescriptorDigest> getMissing() {
+		return missing;
+	}
+
+	/**
+	 * Record the size of an uploaded blob.
+	 */
+	public void uploaded(final DescriptorDigest digest, final long size) {
+		sizes.put(digest, size);
+	}
+
+	public long getSize(final DescriptorDigest digest) {
+		final Long size = sizes.get(digest);
+		if (null == size) {
+			throw new DockerException("Blob " + digest + " was neither found nor uploaded.");
+		}
+		return size;
+	}
+}
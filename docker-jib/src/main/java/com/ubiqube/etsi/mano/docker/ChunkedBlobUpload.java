@@ -0,0 +1,243 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.OptionalLong;
+
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.HttpContent;
+import com.google.cloud.tools.jib.api.DescriptorDigest;
+import com.google.cloud.tools.jib.api.RegistryException;
+import com.google.cloud.tools.jib.http.Request;
+import com.google.cloud.tools.jib.http.RequestHeaders;
+import com.google.cloud.tools.jib.http.Response;
+import com.google.cloud.tools.jib.http.ResponseException;
+
+/**
+ * OCI chunked blob upload: {@code POST}, one {@code PATCH} per chunk with a
+ * {@code Content-Range}, then {@code PUT ?digest=}. When a chunk fails, the
+ * upload session is asked for its offset and the chunk is resumed from there;
+ * the {@code POST} and the {@code PUT} are retried as well.
+ */
+public class ChunkedBlobUpload {
+	private static final Logger LOG = LoggerFactory.getLogger(ChunkedBlobUpload.class);
+	private static final long MAX_BACKOFF_MILLIS = 5_000;
+
+	private final RegistrySession session;
+	private final String imageName;
+	private final int chunkSize;
+	private final int maxRetries;
+
+	public ChunkedBlobUpload(final RegistrySession session, final String imageName, final int chunkSize, final int maxRetries) {
+		this.session = session;
+		this.imageName = imageName;
+		this.chunkSize = chunkSize;
+		this.maxRetries = maxRetries;
+	}
+
+	/**
+	 * @param mountFrom Repository to try to mount the blob from, or null.
+	 * @return The uploaded size, or empty if the blob was mounted.
+	 */
+	public OptionalLong upload(final InputStream is, final DescriptorDigest digest, @Nullable final String mountFrom) {
+		try {
+			URL location = start(digest, mountFrom);
+			if (null == location) {
+				return OptionalLong.empty();
+			}
+			final byte[] buf = new byte[chunkSize];
+			long offset = 0;
+			int n;
+			while ((n = is.readNBytes(buf, 0, chunkSize)) > 0) {
+				location = sendChunk(location, buf, n, offset);
+				offset += n;
+			}
+			commit(withDigest(location, digest), digest);
+			LOG.debug("Uploaded {} in {} byte(s).", digest.getHash(), offset);
+			return OptionalLong.of(offset);
+		} catch (final IOException e) {
+			throw new DockerApiException(e);
+		}
+	}
+
+	/**
+	 * @return The upload location, null when mounted.
+	 */
+	private @Nullable URL start(final DescriptorDigest digest, @Nullable final String mountFrom) throws IOException {
+		String path = "/blobs/uploads/";
+		if (null != mountFrom) {
+			path += "?mount=" + encode(digest.toString()) + "&from=" + encode(mountFrom);
+		}
+		final URL base = session.getUrl(path);
+		for (int attempt = 0;; attempt++) {
+			try (Response res = call("POST", base, null, null)) {
+				if (res.getStatusCode() == 201) {
+					return null;
+				}
+				return location(base, res);
+			} catch (final IOException e) {
+				retryOrThrow(e, attempt, "Upload start");
+			}
+		}
+	}
+
+	/**
+	 * The final {@code PUT}. When its answer is lost, the upload may be committed
+	 * already: the session is then gone and the blob is there.
+	 */
+	private void commit(final URL url, final DescriptorDigest digest) throws IOException {
+		for (int attempt = 0;; attempt++) {
+			try (Response res = call("PUT", url, null, null)) {
+				LOG.trace("Committed {}: {}", digest.getHash(), res.getStatusCode());
+				return;
+			} catch (final IOException e) {
+				if ((attempt > 0) && (e instanceof final ResponseException re) && (re.getStatusCode() == 404) && isPresent(digest)) {
+					return;
+				}
+				retryOrThrow(e, attempt, "Upload commit");
+			}
+		}
+	}
+
+	private boolean isPresent(final DescriptorDigest digest) throws IOException {
+		try {
+			return session.getClient().checkBlob(digest).isPresent();
+		} catch (final RegistryException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private void retryOrThrow(final IOException e, final int attempt, final String what) throws IOException {
+		if ((attempt >= maxRetries) || !isTransient(e)) {
+			throw e;
+		}
+		LOG.info("{} failed, retrying: {}", what, e.getMessage());
+		backoff(attempt);
+	}
+
+	private URL sendChunk(final URL location, final byte[] buf, final int n, final long offset) throws IOException {
+		URL loc = location;
+		long start = offset;
+		for (int attempt = 0;; attempt++) {
+			final int from = (int) (start - offset);
+			final ByteArrayContent content = new ByteArrayContent("application/octet-stream", buf, from, n - from);
+			try (Response res = call("PATCH", loc, content, start + "-" + ((offset + n) - 1))) {
+				return location(loc, res);
+			} catch (final IOException e) {
+				if ((attempt >= maxRetries) || !isTransient(e)) {
+					throw e;
+				}
+				LOG.info("Chunk at {} failed, resuming: {}", start, e.getMessage());
+				backoff(attempt);
+				try (Response res = call("GET", loc, null, null)) {
+					loc = location(loc, res);
+					start = committed(res);
+				}
+				if ((start < offset) || (start > (offset + n))) {
+					throw new DockerApiException("Upload offset " + start + " is outside of the chunk " + offset + "+" + n, e);
+				}
+				if (start == (offset + n)) {
+					return loc;
+				}
+			}
+		}
+	}
+
+	private Response call(final String method, final URL url, @Nullable final HttpContent body, @Nullable final String contentRange) throws IOException {
+		try {
+			return session.getHttpClient().call(method, url, request(body, contentRange));
+		} catch (final ResponseException e) {
+			if (e.getStatusCode() != 401) {
+				throw e;
+			}
+			session.invalidateAuthorization();
+			return session.getHttpClient().call(method, url, request(body, contentRange));
+		}
+	}
+
+	private Request request(@Nullable final HttpContent body, @Nullable final String contentRange) {
+		final Request.Builder builder = Request.builder().setBody(body);
+		session.getAuthorization().ifPresent(builder::setAuthorization);
+		final Request req = builder.build();
+		if (null != contentRange) {
+			RequestHeaders.with(req, "Content-Range", contentRange);
+		}
+		return req;
+	}
+
+	private static boolean isTransient(final IOException e) {
+		if (e instanceof final ResponseException re) {
+			final int code = re.getStatusCode();
+			return (code == 408) || (code == 416) || (code == 429) || (code >= 500);
+		}
+		return true;
+	}
+
+	/**
+	 * The {@code Range} header is inclusive, {@code 0-0} is taken as nothing
+	 * received.
+	 */
+	private static long committed(final Response res) {
+		return res.getHeader("Range").stream()
+				.findFirst()
+				.map(x -> Long.parseLong(x.substring(x.indexOf('-') + 1)))
+				.map(x -> x == 0 ? 0 : x + 1)
+				.orElse(0L);
+	}
+
+	private static URL location(final URL base, final Response res) throws IOException {
+		final String loc = res.getHeader("Location").stream().findFirst().orElse(null);
+		if (null == loc) {
+			return base;
+		}
+		try {
+			return base.toURI().resolve(loc).toURL();
+		} catch (final URISyntaxException | IllegalArgumentException e) {
+			throw new IOException("Invalid upload location: " + loc, e);
+		}
+	}
+
+	private static URL withDigest(final URL location, final DescriptorDigest digest) throws IOException {
+		final String url = location.toString();
+		return URI.create(url + (url.contains("?") ? "&" : "?") + "digest=" + encode(digest.toString())).toURL();
+	}
+
+	private static String encode(final String str) {
+		return URLEncoder.encode(str, StandardCharsets.UTF_8);
+	}
+
+	private static void backoff(final int attempt) throws InterruptedIOException {
+		try {
+			Thread.sleep(Math.min(MAX_BACKOFF_MILLIS, 200L << attempt));
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+}
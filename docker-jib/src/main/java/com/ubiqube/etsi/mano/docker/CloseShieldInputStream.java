@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.io.FilterInputStream;
+import java.io.InputStream;
+
+/**
+ * Closing it leaves the underlying stream open, ie: a stream owned by the
+ * caller, or a tar stream positioned on an entry.
+ */
+class CloseShieldInputStream extends FilterInputStream {
+
+	CloseShieldInputStream(final InputStream in) {
+		super(in);
+	}
+
+	@Override
+	public void close() {
+		// Left open for its owner.
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.cloud.tools.jib.api.Credential;
+import com.google.cloud.tools.jib.api.RegistryException;
+import com.google.cloud.tools.jib.http.FailoverHttpClient;
+import com.google.cloud.tools.jib.registry.RegistryAuthorizations;
+
+/**
+ * Results of connection checks, cached per registry and credentials.
+ *
+ * A result is served during the TTL; once half of it is elapsed, the next call
+ * starts a refresh in the background and keeps serving the current result.
+ * Concurrent checks of the same registry share a single probe. The TTL is read
+ * from {@code mano.docker.probe.ttl}, in seconds, default 60.
+ */
+public class ConnectionProbes {
+	private static final Logger LOG = LoggerFactory.getLogger(ConnectionProbes.class);
+	private static final String USER_AGENT = "mano-docker";
+	private static final ConnectionProbes SHARED = new ConnectionProbes(Duration.ofSeconds(Long.getLong("mano.docker.probe.ttl", 60)), PushExecutor.background());
+	private static final FailoverHttpClient HTTP = new FailoverHttpClient(true, true, x -> LOG.trace("{}", x.getMessage()));
+
+	private final Map<Key, Entry> results = new ConcurrentHashMap<>();
+	private final long ttlNanos;
+	private final Executor executor;
+
+	/**
+	 * @param executor Runs the background refreshes.
+	 */
+	public ConnectionProbes(final Duration ttl, final Executor executor) {
+		this.ttlNanos = ttl.toNanos();
+		this.executor = executor;
+	}
+
+	public static ConnectionProbes shared() {
+		return SHARED;
+	}
+
+	/**
+	 * @param kind  Kind of probe, ie: {@code OCI} or {@code HELM}.
+	 * @param probe Throws if the registry is not usable.
+	 * @throws DockerApiException A new one per call, caused by the cached
+	 *                            failure of the probe.
+	 */
+	public void verify(final RegistryInformations registry, final String kind, final Runnable probe) {
+		verify(registry, kind, probe, executor);
+	}
+
+	/**
+	 * @param refresher Runs the background refresh, ie: the executor of the
+	 *                  caller's {@link ExecutionMode}.
+	 */
+	public void verify(final RegistryInformations registry, final String kind, final Runnable probe, final Executor refresher) {
+		final long now = System.nanoTime();
+		results.values().removeIf(x -> (now - x.startedAt()) > (2 * ttlNanos));
+		final Key key = new Key(kind, registry.getServer(), CredentialFingerprint.of(registry.getUsername(), registry.getPassword()));
+		Entry entry = results.get(key);
+		if ((null == entry) || ((now - entry.startedAt()) >= ttlNanos)) {
+			final Entry current = entry;
+			final Entry fresh = new Entry(now, new CompletableFuture<>(), new AtomicBoolean());
+			entry = results.compute(key, (k, v) -> v == current ? fresh : v);
+			if (entry == fresh) {
+				run(probe, fresh);
+			}
+		} else if (((now - entry.startedAt()) >= (ttlNanos / 2)) && entry.refreshing().compareAndSet(false, true)) {
+			final Entry current = entry;
+			refresher.execute(() -> {
+				final Entry next = new Entry(System.nanoTime(), new CompletableFuture<>(), new AtomicBoolean());
+				run(probe, next);
+				results.replace(key, current, next);
+			});
+		}
+		final Optional<RuntimeException> failure = entry.result().join();
+		if (failure.isPresent()) {
+			throw new DockerApiException(failure.get());
+		}
+	}
+
+	/**
+	 * Forget the cached results of a registry, ie: after its configuration
+	 * changed.
+	 */
+	public void invalidate(final RegistryInformations registry) {
+		results.keySet().removeIf(x -> x.server().equals(registry.getServer()));
+	}
+
+	private static void run(final Runnable probe, final Entry entry) {
+		try {
+			probe.run();
+			entry.result().complete(Optional.empty());
+		} catch (final RuntimeException e) {
+			entry.result().complete(Optional.of(e));
+		}
+	}
+
+	/**
+	 * {@code GET /v2/}, plus a token request when the registry asks for one.
+	 */
+	public static void checkRegistry(final RegistryInformations registry) {
+		final Credential credential = null == registry.getUsername() ? null : Credential.from(registry.getUsername(), registry.getPassword());
+		try {
+			RegistryAuthorizations.check(HTTP, RegistrySession.getHost(registry.getServer()), credential, USER_AGENT);
+		} catch (IOException | RegistryException e) {
+			throw new DockerApiException(e);
+		}
+	}
+
+	private record Key(String kind, String server, String credentials) {
+		//
+	}
+
+	/**
+	 * @param result Empty on success.
+	 */
+	private record Entry(long startedAt, CompletableFuture<Optional<RuntimeException>> result, AtomicBoolean refreshing) {
+		//
+	}
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Fingerprint of registry credentials, so cache keys never hold, nor print, a
+ * password.
+ */
+final class CredentialFingerprint {
+
+	private CredentialFingerprint() {
+		// Nothing.
+	}
+
+	static String of(final String username, final String password) {
+		try {
+			final MessageDigest md = MessageDigest.getInstance("SHA-256");
+			update(md, username);
+			update(md, password);
+			return HexFormat.of().formatHex(md.digest());
+		} catch (final NoSuchAlgorithmException e) {
+			throw new DockerApiException(e);
+		}
+	}
+
+	private static void update(final MessageDigest md, final String value) {
+		if (null == value) {
+			md.update((byte) 0);
+			return;
+		}
+		md.update((byte) 1);
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		md.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+		md.update(bytes);
+	}
+}
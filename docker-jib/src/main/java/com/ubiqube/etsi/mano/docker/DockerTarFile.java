@@ -19,7 +19,14 @@ package com.ubiqube.etsi.mano.docker;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.IntStream;
 
 import org.apache.commons.compress.archivers.tar.TarFile;
 import org.slf4j.Logger;
@@ -29,9 +36,11 @@ import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.google.cloud.tools.jib.api.DescriptorDigest;
+import com.google.cloud.tools.jib.blob.BlobDescriptor;
 import com.google.cloud.tools.jib.docker.json.DockerManifestEntryTemplate;
 import com.google.cloud.tools.jib.image.json.BuildableManifestTemplate;
 import com.google.cloud.tools.jib.image.json.ContainerConfigurationTemplate;
+import com.google.cloud.tools.jib.image.json.OciLayerManifestTemplate;
 import com.google.cloud.tools.jib.image.json.V22ManifestTemplate;
 
 public class DockerTarFile implements ContainerTarFile {
@@ -42,9 +51,19 @@ public class DockerTarFile implements ContainerTarFile {
 	private final Manifest mf;
 
 	private final ArchiveApi aa;
+	private final PushOptions options;
 
 	public DockerTarFile(final TarFile tarFile) {
-		this.aa = new ArchiveApi(tarFile);
+		this(tarFile, PushOptions.builder().build());
+	}
+
+	public DockerTarFile(final TarFile tarFile, final PushOptions options) {
+		this(new ArchiveApi(tarFile), options);
+	}
+
+	public DockerTarFile(final ArchiveApi archive, final PushOptions options) {
+		this.aa = archive;
+		this.options = options;
 		this.mf = openManifest();
 		final DockerManifestEntryTemplate manifestEntry = mf.get();
 		this.configRaw = getConfigRaw(manifestEntry.getConfig());
@@ -54,23 +73,134 @@ public class DockerTarFile implements ContainerTarFile {
 
 	@Override
 	public void copyTo(final Registry reg, final String tag) {
-		final BuildableManifestTemplate mft = new V22ManifestTemplate();
-		layers.forEach(x -> {
-			try (final InputStream is = aa.getInputStream(x.blob())) {
-				final long sz = reg.pushBlob(is, x.digest());
-				mft.addLayer(sz, x.digest());
-			} catch (final IOException e) {
-				throw new DockerApiException(e);
-			}
-		});
+		final BuildableManifestTemplate mft = null == options.getCompression() ? pushLayers(reg) : compressLayers(reg, options.getCompression());
 		final DescriptorDigest manifestDigest = reg.pushConfig(configRaw);
 		mft.setContainerConfiguration(configRaw.length, manifestDigest);
-		//
-		final ContainerConfigurationTemplate r2 = new ContainerConfigurationTemplate();
-		layers.forEach(x -> r2.addLayerDiffId(x.digest()));
 		LOG.debug("Pushing maifest with tag {}", tag);
 		reg.pushManifest(mft, tag);
+	}
 
+	private BuildableManifestTemplate pushLayers(final Registry reg) {
+		final BuildableManifestTemplate mft = new V22ManifestTemplate();
+		final BlobPlan plan = reg.checkBlobs(layers.stream().map(LayerDescriptor::digest).toList());
+		final Set<DescriptorDigest> queued = new HashSet<>();
+		final List<LayerDescriptor> missing = layers.stream().filter(x -> plan.isMissing(x.digest()) && queued.add(x.digest())).toList();
+		ParallelTasks.map(missing, options.getParallelism(), biggestFirst(), x -> pushLayer(reg, plan, x), options.getExecutionMode());
+		layers.forEach(x -> mft.addLayer(plan.getSize(x.digest()), x.digest()));
+		return mft;
+	}
+
+	/**
+	 * Layers are plain tars in a docker save archive; compress them before the
+	 * upload. Blobs get the digest of the compressed layer while the
+	 * configuration keeps the diffIds. Zstd layers need an OCI manifest.
+	 */
+	private BuildableManifestTemplate compressLayers(final Registry reg, final LayerCodec codec) {
+		final int level = Optional.ofNullable(options.getCompressionLevel()).orElse(codec.getDefaultLevel());
+		final Set<DescriptorDigest> queued = new HashSet<>();
+		final List<LayerDescriptor> distinct = layers.stream().filter(x -> queued.add(x.digest())).toList();
+		final LayerDigestCache cache = Optional.ofNullable(options.getLayerCache()).map(x -> LayerDigestCache.persistent(x, options.getLayerCacheBytes())).orElse(null);
+		final Map<DescriptorDigest, BlobDescriptor> known = new HashMap<>();
+		if (null != cache) {
+			distinct.forEach(x -> cache.get(x.digest(), codec, level).ifPresent(d -> known.put(x.digest(), d)));
+		}
+		// Layers compressed before only cost an existence check.
+		final BlobPlan plan = reg.checkBlobs(known.values().stream().map(BlobDescriptor::getDigest).toList());
+		final List<BlobDescriptor> pushed = LayerPipeline.map(distinct, biggestFirst(),
+				x -> compress(reg, codec, level, x, cache, known.get(x.digest()), plan),
+				(x, sb) -> pushCompressed(reg, codec, level, x, cache, known.get(x.digest()), plan, sb),
+				options);
+		if (null != cache) {
+			cache.save();
+		}
+		final Map<DescriptorDigest, BlobDescriptor> byDiffId = new HashMap<>();
+		IntStream.range(0, distinct.size()).forEach(i -> byDiffId.put(distinct.get(i).digest(), pushed.get(i)));
+		if (codec == LayerCodec.GZIP) {
+			final V22ManifestTemplate mft = new V22ManifestTemplate();
+			layers.stream().map(x -> byDiffId.get(x.digest())).forEach(x -> mft.addLayer(x.getSize(), x.getDigest()));
+			return mft;
+		}
+		final OciLayerManifestTemplate mft = new OciLayerManifestTemplate();
+		layers.stream().map(x -> byDiffId.get(x.digest())).forEach(x -> mft.addLayer(x.getSize(), x.getDigest(), codec.getMediaType()));
+		return mft;
+	}
+
+	/**
+	 * CPU stage of the pipeline.
+	 *
+	 * @param cache  Layer digest cache, or null.
+	 * @param cached The compressed layer found in the cache, or null.
+	 * @return The compressed layer, null when the registry or the cache already
+	 *         has it.
+	 */
+	private SpooledBlob compress(final Registry reg, final LayerCodec codec, final int level, final LayerDescriptor layer, final LayerDigestCache cache, final BlobDescriptor cached, final BlobPlan plan) {
+		if ((null != cached) && (!plan.isMissing(cached.getDigest()) || cache.contains(cached.getDigest()))) {
+			return null;
+		}
+		try (InputStream is = aa.getInputStream(layer.blob())) {
+			return reg.timed("compression", () -> codec.spool(is, level, LayerPipeline.threadsPerItem(layers.size(), options)));
+		} catch (final IOException e) {
+			throw new DockerApiException(e);
+		}
+	}
+
+	/**
+	 * I/O stage of the pipeline.
+	 *
+	 * @param sb The compressed layer, or null if {@code cached} is to be used.
+	 */
+	private BlobDescriptor pushCompressed(final Registry reg, final LayerCodec codec, final int level, final LayerDescriptor layer, final LayerDigestCache cache, final BlobDescriptor cached, final BlobPlan plan, final SpooledBlob sb) {
+		if (null == sb) {
+			if (!plan.isMissing(cached.getDigest())) {
+				return new BlobDescriptor(plan.getSize(cached.getDigest()), cached.getDigest());
+			}
+			final Optional<InputStream> kept = cache.open(cached.getDigest());
+			if (kept.isEmpty()) {
+				// Evicted meanwhile.
+				try (SpooledBlob late = compress(reg, codec, level, layer, null, null, plan)) {
+					return pushCompressed(reg, codec, level, layer, cache, null, plan, late);
+				}
+			}
+			try (InputStream is = kept.get()) {
+				final long size = reg.uploadBlob(is, cached.getDigest());
+				plan.uploaded(cached.getDigest(), size);
+				return new BlobDescriptor(size, cached.getDigest());
+			} catch (final IOException e) {
+				throw new DockerApiException(e);
+			}
+		}
+		try (InputStream sbis = sb.openStream()) {
+			final BlobDescriptor ret = new BlobDescriptor(reg.pushBlob(sbis, sb.getDigest()), sb.getDigest());
+			if (null != cache) {
+				cache.put(layer.digest(), codec, level, ret);
+				try (InputStream keep = sb.openStream()) {
+					cache.store(ret, keep);
+				}
+			}
+			return ret;
+		} catch (final IOException e) {
+			throw new DockerApiException(e);
+		}
+	}
+
+	private Comparator<LayerDescriptor> biggestFirst() {
+		return Comparator.comparingLong((final LayerDescriptor x) -> aa.getSize(x.blob())).reversed();
+	}
+
+	private long pushLayer(final Registry reg, final BlobPlan plan, final LayerDescriptor layer) {
+		final Optional<FileRegionBlob> region = aa.getRegion(layer.blob(), layer.digest());
+		if (region.isPresent()) {
+			final long size = reg.uploadBlob(region.get(), layer.digest());
+			plan.uploaded(layer.digest(), size);
+			return size;
+		}
+		try (final InputStream is = aa.getInputStream(layer.blob())) {
+			final long size = reg.uploadBlob(is, layer.digest());
+			plan.uploaded(layer.digest(), size);
+			return size;
+		} catch (final IOException e) {
+			throw new DockerApiException(e);
+		}
 	}
 
 	private byte[] getConfigRaw(final String config) {
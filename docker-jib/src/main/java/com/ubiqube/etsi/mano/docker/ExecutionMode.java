@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Threads used by the pushes and by the layer transfers.
+ */
+public enum ExecutionMode {
+	/**
+	 * Bounded pools of platform threads.
+	 */
+	PLATFORM {
+		@Override
+		public Executor pushExecutor() {
+			return PushExecutor.shared();
+		}
+
+		@Override
+		public Executor backgroundExecutor() {
+			return PushExecutor.background();
+		}
+
+		@Override
+		public ExecutorService newTaskExecutor(final int parallelism) {
+			return Executors.newFixedThreadPool(parallelism);
+		}
+	},
+	/**
+	 * One virtual thread per push and per layer transfer; the number of transfers
+	 * and existence checks against a registry is capped by
+	 * {@link RegistryPermits}.
+	 */
+	VIRTUAL {
+		@Override
+		public Executor pushExecutor() {
+			return PushExecutor.virtual();
+		}
+
+		@Override
+		public Executor backgroundExecutor() {
+			return PushExecutor.virtual();
+		}
+
+		@Override
+		public ExecutorService newTaskExecutor(final int parallelism) {
+			return Executors.newVirtualThreadPerTaskExecutor();
+		}
+	};
+
+	public abstract Executor pushExecutor();
+
+	/**
+	 * Short tasks serving a push, ie: writing a streamed request body.
+	 */
+	public abstract Executor backgroundExecutor();
+
+	public abstract ExecutorService newTaskExecutor(int parallelism);
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.google.cloud.tools.jib.api.DescriptorDigest;
+import com.google.cloud.tools.jib.blob.Blob;
+import com.google.cloud.tools.jib.blob.BlobDescriptor;
+
+/**
+ * A blob stored as a contiguous region of a local file, ie: an uncompressed tar
+ * entry. It is written with {@link FileChannel#transferTo}, without going
+ * through the tar stream, and can be replayed on retry.
+ */
+public class FileRegionBlob implements Blob {
+	private final Path path;
+	private final long offset;
+	private final long length;
+	private final DescriptorDigest digest;
+
+	public FileRegionBlob(final Path path, final long offset, final long length, final DescriptorDigest digest) {
+		this.path = path;
+		this.offset = offset;
+		this.length = length;
+		this.digest = digest;
+	}
+
+	@Override
+	public BlobDescriptor writeTo(final OutputStream os) throws IOException {
+		try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+			final WritableByteChannel out = Channels.newChannel(os);
+			long position = offset;
+			long remaining = length;
+			while (remaining > 0) {
+				final long n = fc.transferTo(position, remaining, out);
+				if (n <= 0) {
+					throw new EOFException("Unexpected end of " + path + " at " + position);
+				}
+				position += n;
+				remaining -= n;
+			}
+		}
+		return new BlobDescriptor(length, digest);
+	}
+
+	@Override
+	public boolean isRetryable() {
+		return true;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return A stream over the region, using positional reads.
+	 */
+	public InputStream openStream() throws IOException {
+		final FileChannel fc = FileChannel.open(path, StandardOpenOption.READ);
+		return new InputStream() {
+			private long position = offset;
+
+			@Override
+			public int read() throws IOException {
+				final byte[] b = new byte[1];
+				return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+			}
+
+			@Override
+			public int read(final byte[] b, final int off, final int len) throws IOException {
+				final long left = (offset + length) - position;
+				if (left <= 0) {
+					return -1;
+				}
+				final int n = fc.read(ByteBuffer.wrap(b, off, (int) Math.min(len, left)), position);
+				if (n > 0) {
+					position += n;
+				}
+				return n;
+			}
+
+			@Override
+			public void close() throws IOException {
+				fc.close();
+			}
+		};
+	}
+}
@@ -16,69 +16,125 @@
  */
 package com.ubiqube.etsi.mano.docker;
 
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
-import java.nio.file.Path;
+import java.nio.file.Files;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.GZIPOutputStream;
 
-import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
-import org.springframework.core.io.InputStreamResource;
-import org.springframework.core.io.Resource;
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.reactive.ClientHttpRequest;
+import org.springframework.web.reactive.function.BodyInserter;
 import org.springframework.web.reactive.function.BodyInserters;
-import org.springframework.web.reactive.function.client.ExchangeFilterFunctions;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import reactor.core.publisher.Mono;
 
 public class HelmDockerService implements HelmService {
+	private final ExecutionMode mode;
+	private final boolean streaming;
+
+	public HelmDockerService() {
+		this(ExecutionMode.PLATFORM);
+	}
+
+	public HelmDockerService(final ExecutionMode mode) {
+		this(mode, false);
+	}
+
+	/**
+	 * @param streaming Pipe the chart into a chunked request body, without a
+	 *                  Content-Length; false spools it to a file first, which
+	 *                  every repository accepts.
+	 */
+	public HelmDockerService(final ExecutionMode mode, final boolean streaming) {
+		this.mode = mode;
+		this.streaming = streaming;
+	}
 
 	@Override
 	public void sendToRegistry(final InputStream is, final String filename, final RegistryInformations registry, final String imageName, final String tag) {
-		try (final TemporaryFileSentry ts = new TemporaryFileSentry(".tgz");
-				OutputStream os = new FileOutputStream(ts.get().toString());
-				InputStream ris = unpack(is, filename);
-				OutputStream ros = pack(os, filename)) {
-			ris.transferTo(ros);
-			send(ts.get(), registry, imageName, tag);
-		} catch (final IOException e) {
-			throw new DockerApiException(e);
+		if (mode == ExecutionMode.VIRTUAL) {
+			RegistryPermits.shared().run(registry.getServer(), () -> upload(is, filename, registry, imageName, tag));
+		} else {
+			upload(is, filename, registry, imageName, tag);
 		}
 	}
 
-	private static void send(final Path path, final RegistryInformations registry, final String imageName, final String tag) {
-		final WebClient wc = createWebClient(registry);
-		try (InputStream fis = new FileInputStream(path.toFile());) {
-			final Resource resource = new InputStreamResource(fis);
-			final URI uri = UriComponentsBuilder.fromHttpUrl(registry.getServer()).pathSegment("mano").path(buildImageName(imageName, tag)).build().toUri();
-			final Mono<HttpStatusCode> res = wc
-					.put()
-					.uri(uri)
-					.body(BodyInserters.fromResource(resource))
-					.exchangeToMono(response -> {
-						if (HttpStatus.OK.equals(response.statusCode())) {
-							return response.bodyToMono(HttpStatus.class).thenReturn(response.statusCode());
-						}
-						throw new DockerApiException("Error uploading file");
-					});
-			res.block();
+	private void upload(final InputStream is, final String filename, final RegistryInformations registry, final String imageName, final String tag) {
+		final PushMetrics metrics = PushMetrics.shared();
+		if (streaming) {
+			final long size = metrics.time("upload", registry.getServer(), ArtifactType.HELM, () -> sendStream(is, filename, registry, imageName, tag));
+			metrics.uploaded(registry.getServer(), ArtifactType.HELM, size);
+			return;
+		}
+		try (final TemporaryFileSentry ts = new TemporaryFileSentry(".tgz")) {
+			metrics.run("compression", registry.getServer(), ArtifactType.HELM, () -> {
+				try (OutputStream os = new FileOutputStream(ts.get().toString());
+						InputStream ris = unpack(new CloseShieldInputStream(is), filename);
+						OutputStream ros = pack(os, filename)) {
+					ris.transferTo(ros);
+				} catch (final IOException e) {
+					throw new DockerApiException(e);
+				}
+			});
+			metrics.run("upload", registry.getServer(), ArtifactType.HELM, () -> put(registry, imageName, tag, BodyInserters.fromResource(new FileSystemResource(ts.get()))));
+			metrics.uploaded(registry.getServer(), ArtifactType.HELM, Files.size(ts.get()));
 		} catch (final IOException e) {
-			throw new DockerApiException("Error uploading file");
+			throw new DockerApiException(e);
 		}
 	}
 
-	private static WebClient createWebClient(final RegistryInformations registry) {
-		return WebClient.builder()
-				.baseUrl(registry.getServer())
-				.filter(ExchangeFilterFunctions.basicAuthentication(registry.getUsername(), registry.getPassword()))
-				.build();
+	/**
+	 * Unpack and pack on another thread, writing straight into the request body.
+	 *
+	 * @return The number of bytes sent.
+	 */
+	private long sendStream(final InputStream is, final String filename, final RegistryInformations registry, final String imageName, final String tag) {
+		final AtomicLong sent = new AtomicLong();
+		final Publisher<DataBuffer> body = DataBufferUtils.outputStreamPublisher(os -> {
+			final CountingStreams.Output cos = new CountingStreams.Output(os);
+			try (InputStream ris = unpack(new CloseShieldInputStream(is), filename);
+					OutputStream ros = pack(cos, filename)) {
+				ris.transferTo(ros);
+			} catch (final IOException e) {
+				throw new DockerApiException(e);
+			}
+			sent.set(cos.getCount());
+		}, DefaultDataBufferFactory.sharedInstance, mode.backgroundExecutor());
+		put(registry, imageName, tag, BodyInserters.fromDataBuffers(body));
+		return sent.get();
+	}
+
+	private static void put(final RegistryInformations registry, final String imageName, final String tag, final BodyInserter<?, ? super ClientHttpRequest> body) {
+		final URI uri = UriComponentsBuilder.fromHttpUrl(registry.getServer()).pathSegment("mano").path(buildImageName(imageName, tag)).build().toUri();
+		final Mono<HttpStatusCode> res = HelmWebClients.get(registry)
+				.put()
+				.uri(uri)
+				.body(body)
+				.exchangeToMono(response -> {
+					if (HttpStatus.OK.equals(response.statusCode())) {
+						return response.bodyToMono(HttpStatus.class).thenReturn(response.statusCode());
+					}
+					if (HttpStatus.LENGTH_REQUIRED.equals(response.statusCode())) {
+						throw new DockerApiException("Error uploading file, the repository requires a Content-Length: disable streaming.");
+					}
+					throw new DockerApiException("Error uploading file");
+				});
+		res.block();
 	}
 
 	private static String buildImageName(final String imageName, final String tag) {
@@ -94,21 +150,45 @@ public class HelmDockerService implements HelmService {
 
 	private static InputStream unpack(final InputStream is, final String filename) throws IOException {
 		if (filename.endsWith(".bz2")) {
-			return new BZip2CompressorInputStream(is);
+			return new ParallelBZip2CompressorInputStream(is);
 		}
 		return is;
 	}
 
+	@Override
+	public CompletableFuture<PushResult> sendToRegistryAsync(final PushJob job) {
+		return sendToRegistryAsync(job, mode.pushExecutor());
+	}
+
 	@Override
 	public void verifyConnection(final RegistryInformations registry) {
+		ConnectionProbes.shared().verify(registry, "HELM", () -> checkIndex(registry), mode.backgroundExecutor());
+	}
+
+	/**
+	 * {@code HEAD index.yaml}, the index can be large; repositories not allowing
+	 * HEAD get a GET of its first byte.
+	 */
+	private static void checkIndex(final RegistryInformations registry) {
 		final URI uri = UriComponentsBuilder.fromHttpUrl(registry.getServer()).path("index.yaml").build().toUri();
-		final WebClient c = createWebClient(registry);
-		c.get()
+		final WebClient c = HelmWebClients.get(registry);
+		final HttpStatusCode status = c.head()
 				.uri(uri)
-				.retrieve()
-				.onStatus(HttpStatusCode::is4xxClientError, r -> Mono.error(new DockerException("" + r.statusCode())))
-				.toBodilessEntity()
+				.exchangeToMono(r -> Mono.just(r.statusCode()))
 				.block();
+		if (HttpStatus.METHOD_NOT_ALLOWED.equals(status)) {
+			c.get()
+					.uri(uri)
+					.header(HttpHeaders.RANGE, "bytes=0-0")
+					.retrieve()
+					.onStatus(HttpStatusCode::is4xxClientError, r -> Mono.error(new DockerException("" + r.statusCode())))
+					.toBodilessEntity()
+					.block();
+			return;
+		}
+		if ((null == status) || status.isError()) {
+			throw new DockerException("" + status);
+		}
 	}
 
 	@Override
@@ -21,17 +21,25 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
 import java.util.zip.GZIPInputStream;
 
-import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
-
 public class HelmOciDockerService implements HelmService {
+	private final ExecutionMode mode;
+
+	public HelmOciDockerService() {
+		this(ExecutionMode.PLATFORM);
+	}
+
+	public HelmOciDockerService(final ExecutionMode mode) {
+		this.mode = mode;
+	}
 
 	@Override
 	public void sendToRegistry(final InputStream is, final String filename, final RegistryInformations registry, final String imageName, final String tag) {
 		try (final TemporaryFileSentry ts = new TemporaryFileSentry(".tar");
 				OutputStream os = new FileOutputStream(ts.get().toString());
-				InputStream ris = unpack(is, filename)) {
+				InputStream ris = unpack(new CloseShieldInputStream(is), filename)) {
 			ris.transferTo(os);
 			send(ts.get(), registry, imageName, tag);
 		} catch (final IOException e) {
@@ -39,15 +47,16 @@ public class HelmOciDockerService implements HelmService {
 		}
 	}
 
-	private static void send(final Path path, final RegistryInformations registry, final String imageName, final String tag) {
-		final Registry reg = Registry.of(registry, imageName);
-		final OciHelmTarFile ohtf = new OciHelmTarFile(path.toFile());
-		ohtf.copyTo(reg, tag);
+	private void send(final Path path, final RegistryInformations registry, final String imageName, final String tag) {
+		final Registry reg = Registry.of(registry, imageName, PushOptions.builder().executionMode(mode).build(), ArtifactType.HELM_OCI);
+		try (OciHelmTarFile ohtf = reg.timed("compression", () -> new OciHelmTarFile(path.toFile()))) {
+			reg.push(() -> ohtf.copyTo(reg, tag));
+		}
 	}
 
 	private static InputStream unpack(final InputStream is, final String filename) throws IOException {
 		if (filename.endsWith(".bz2")) {
-			return new BZip2CompressorInputStream(is);
+			return new ParallelBZip2CompressorInputStream(is);
 		}
 		if (filename.endsWith(".tgz") || filename.endsWith(".tar.gz")) {
 			return new GZIPInputStream(is);
@@ -55,9 +64,14 @@ public class HelmOciDockerService implements HelmService {
 		return is;
 	}
 
+	@Override
+	public CompletableFuture<PushResult> sendToRegistryAsync(final PushJob job) {
+		return sendToRegistryAsync(job, mode.pushExecutor());
+	}
+
 	@Override
 	public void verifyConnection(final RegistryInformations registry) {
-		Registry.of(registry, "dummy");
+		ConnectionProbes.shared().verify(registry, "OCI", () -> ConnectionProbes.checkRegistry(registry), mode.backgroundExecutor());
 	}
 
 	@Override
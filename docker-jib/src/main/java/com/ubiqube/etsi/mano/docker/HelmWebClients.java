@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunctions;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * One {@link WebClient} per Helm repository and credentials, all the clients of
+ * a server sharing a pool of connections.
+ */
+final class HelmWebClients {
+	private static final int MAX_CONNECTIONS = Integer.getInteger("mano.docker.helm.connections", 16);
+	private static final Map<String, ConnectionProvider> PROVIDERS = new ConcurrentHashMap<>();
+	private static final Map<Key, WebClient> CLIENTS = new ConcurrentHashMap<>();
+
+	private HelmWebClients() {
+		// Nothing.
+	}
+
+	static WebClient get(final RegistryInformations registry) {
+		return CLIENTS.computeIfAbsent(new Key(registry.getServer(), CredentialFingerprint.of(registry.getUsername(), registry.getPassword())), x -> create(registry));
+	}
+
+	private static WebClient create(final RegistryInformations registry) {
+		final ConnectionProvider provider = PROVIDERS.computeIfAbsent(registry.getServer(), x -> ConnectionProvider.builder("helm-" + x)
+				.maxConnections(MAX_CONNECTIONS)
+				.pendingAcquireTimeout(Duration.ofMinutes(1))
+				.maxIdleTime(Duration.ofSeconds(30))
+				.build());
+		return WebClient.builder()
+				.clientConnector(new ReactorClientHttpConnector(HttpClient.create(provider)))
+				.baseUrl(registry.getServer())
+				.filter(ExchangeFilterFunctions.basicAuthentication(registry.getUsername(), registry.getPassword()))
+				.build();
+	}
+
+	private record Key(String server, String credentials) {
+		//
+	}
+}
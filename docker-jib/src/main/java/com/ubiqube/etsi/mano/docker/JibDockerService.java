@@ -16,38 +16,91 @@
  */
 package com.ubiqube.etsi.mano.docker;
 
+import java.io.BufferedInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.commons.compress.archivers.tar.TarFile;
 
 public class JibDockerService implements DockerService {
+	private final PushOptions options;
 
+	public JibDockerService() {
+		this(PushOptions.builder().build());
+	}
+
+	public JibDockerService(final PushOptions options) {
+		this.options = options;
+	}
+
+	/**
+	 * Archives named {@code *.bz2} are decompressed on the fly. The stream is left
+	 * open for the caller.
+	 */
 	@Override
 	public void sendToRegistry(final InputStream is, final String filename, final RegistryInformations registry, final String imageName, final String tag) {
+		if ((null != filename) && filename.endsWith(".bz2")) {
+			try (InputStream bz = new ParallelBZip2CompressorInputStream(new CloseShieldInputStream(is))) {
+				push(bz, registry, imageName, tag);
+			} catch (final IOException e) {
+				throw new DockerApiException(e);
+			}
+			return;
+		}
+		push(is, registry, imageName, tag);
+	}
+
+	private void push(final InputStream is, final RegistryInformations registry, final String imageName, final String tag) {
+		InputStream in = is;
+		if (options.isStreaming() && (null == options.getCompression())) {
+			final BufferedInputStream bis = new BufferedInputStream(is);
+			if (OciTarStream.isOciLayout(bis)) {
+				sendStream(bis, registry, imageName, tag);
+				return;
+			}
+			in = bis;
+		}
 		try (final TemporaryFileSentry ts = new TemporaryFileSentry();
 				OutputStream os = new FileOutputStream(ts.get().toString())) {
-			is.transferTo(os);
+			in.transferTo(os);
 			send(ts.get(), registry, imageName, tag);
 		} catch (final IOException e) {
 			throw new DockerApiException(e);
 		}
 	}
 
-	private static void send(final Path path, final RegistryInformations registry, final String imageName, final String tag) {
+	private void sendStream(final InputStream is, final RegistryInformations registry, final String imageName, final String tag) {
+		try {
+			final Registry reg = Registry.of(registry, imageName, options, ArtifactType.OCI);
+			reg.timed("push", () -> {
+				new OciTarStream(is, options).copyTo(reg, tag);
+				return null;
+			});
+			reg.flush();
+		} catch (final DockerException e) {
+			throw new DockerApiException("Error while fetching: " + imageName + ":" + tag, e);
+		}
+	}
+
+	private void send(final Path path, final RegistryInformations registry, final String imageName, final String tag) {
 		try (final TarFile tf = new TarFile(path)) {
-			final boolean oci = isOci(tf);
+			final ArchiveApi aa = new ArchiveApi(tf, path);
 			ContainerTarFile tar;
-			if (oci) {
-				tar = new OciTarFile(tf);
+			ArtifactType type;
+			if (aa.contains("oci-layout")) {
+				tar = new OciTarFile(aa, options);
+				type = ArtifactType.OCI;
 			} else {
-				tar = new DockerTarFile(tf);
+				tar = new DockerTarFile(aa, options);
+				type = ArtifactType.DOCKER;
 			}
-			final Registry reg = Registry.of(registry, imageName);
-			tar.copyTo(reg, tag);
+			final Registry reg = Registry.of(registry, imageName, options, type);
+			reg.push(() -> tar.copyTo(reg, tag));
+			reg.flush();
 		} catch (final IOException e) {
 			throw new DockerApiException(e);
 		} catch (final DockerException e) {
@@ -55,15 +108,14 @@ public class JibDockerService implements DockerService {
 		}
 	}
 
-	private static boolean isOci(final TarFile tarFile) {
-		return tarFile.getEntries()
-				.stream()
-				.anyMatch(x -> "oci-layout".equals(x.getName()));
+	@Override
+	public CompletableFuture<PushResult> sendToRegistryAsync(final PushJob job) {
+		return sendToRegistryAsync(job, options.getExecutionMode().pushExecutor());
 	}
 
 	@Override
 	public void verifyConnection(final RegistryInformations registry) {
-		Registry.of(registry, "dummy");
+		ConnectionProbes.shared().verify(registry, "OCI", () -> ConnectionProbes.checkRegistry(registry), options.getExecutionMode().backgroundExecutor());
 	}
 
 }
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Optional;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.airlift.compress.zstd.ZstdInputStream;
+import io.airlift.compress.zstd.ZstdOutputStream;
+
+/**
+ * Compression of OCI image layers. Zstd uses the native zstd-jni when it is on
+ * the classpath, and a pure Java implementation otherwise; the latter ignores
+ * the level.
+ */
+public enum LayerCodec {
+	GZIP("application/vnd.oci.image.layer.v1.tar+gzip", Deflater.DEFAULT_COMPRESSION) {
+		@Override
+		public SpooledBlob spool(final InputStream raw, final int level, final int threads) {
+			try (InputStream gz = new ParallelGzipCompressingInputStream(raw, threads, ParallelGzipCompressingInputStream.DEFAULT_BLOCK_SIZE, level)) {
+				return new SpooledBlob(gz);
+			} catch (final IOException e) {
+				throw new DockerApiException(e);
+			}
+		}
+	},
+	ZSTD("application/vnd.oci.image.layer.v1.tar+zstd", 3) {
+		@Override
+		public SpooledBlob spool(final InputStream raw, final int level, final int threads) {
+			return new SpooledBlob(raw, os -> zstdOutput(os, level));
+		}
+	};
+
+	private static final Logger LOG = LoggerFactory.getLogger(LayerCodec.class);
+
+	private final String mediaType;
+	private final int defaultLevel;
+
+	LayerCodec(final String mediaType, final int defaultLevel) {
+		this.mediaType = mediaType;
+		this.defaultLevel = defaultLevel;
+	}
+
+	public String getMediaType() {
+		return mediaType;
+	}
+
+	public int getDefaultLevel() {
+		return defaultLevel;
+	}
+
+	/**
+	 * Compress an uncompressed tar layer into a spooled blob.
+	 *
+	 * @param threads Threads compressing this layer, gzip only.
+	 */
+	public abstract SpooledBlob spool(InputStream raw, int level, int threads);
+
+	/**
+	 * @return The uncompressed tar of a layer, or empty if the media type is not a
+	 *         tar layer we can decode.
+	 */
+	public static Optional<InputStream> decode(final InputStream is, final String layerMediaType) throws IOException {
+		if (layerMediaType.endsWith("tar")) {
+			return Optional.of(is);
+		}
+		if (layerMediaType.endsWith("tar+gzip") || layerMediaType.endsWith("tar.gzip")) {
+			return Optional.of(new GZIPInputStream(is));
+		}
+		if (layerMediaType.endsWith("tar+zstd")) {
+			return Optional.of(zstdInput(is));
+		}
+		return Optional.empty();
+	}
+
+	private static OutputStream zstdOutput(final OutputStream os, final int level) throws IOException {
+		if (ZstdUtils.isZstdCompressionAvailable()) {
+			return new ZstdCompressorOutputStream(os, level);
+		}
+		LOG.debug("zstd-jni not found, using pure Java zstd with its default level.");
+		return new ZstdOutputStream(os);
+	}
+
+	private static InputStream zstdInput(final InputStream is) throws IOException {
+		if (ZstdUtils.isZstdCompressionAvailable()) {
+			return new ZstdCompressorInputStream(is);
+		}
+		return new ZstdInputStream(is);
+	}
+}
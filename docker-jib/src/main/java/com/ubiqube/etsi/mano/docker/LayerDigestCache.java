@@ -0,0 +1,304 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestException;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.cloud.tools.jib.api.DescriptorDigest;
+import com.google.cloud.tools.jib.blob.BlobDescriptor;
+
+/**
+ * Remember the digest and size of a layer once compressed, by the diffId of the
+ * uncompressed layer and the codec settings. A layer pushed again can then be
+ * checked in the registry without compressing it first. The compressed layers
+ * themselves can be kept too, up to a number of bytes; least recently used
+ * ones are dropped first.
+ */
+public class LayerDigestCache {
+	private static final Logger LOG = LoggerFactory.getLogger(LayerDigestCache.class);
+	private static final int DEFAULT_MAX_ENTRIES = 10_000;
+	private static final String INDEX = "index.tsv";
+	private static final String BLOBS = "blobs";
+	private static final Map<Path, LayerDigestCache> PERSISTENT = new ConcurrentHashMap<>();
+
+	private final Lock lock = new ReentrantLock();
+	private final Map<Key, BlobDescriptor> index;
+	/** Kept blobs and their size, least recently used first. */
+	private final LinkedHashMap<DescriptorDigest, Long> blobs = new LinkedHashMap<>(16, 0.75f, true);
+	private final Path directory;
+	private volatile long maxBytes;
+	private long bytes;
+
+	/**
+	 * @param directory Directory holding the cache, created if needed.
+	 * @param maxBytes  Bytes of compressed layers to keep, 0 keeps only digests.
+	 */
+	public LayerDigestCache(final Path directory, final int maxEntries, final long maxBytes) {
+		this.index = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Key, BlobDescriptor> eldest) {
+				return size() > maxEntries;
+			}
+		};
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		try {
+			Files.createDirectories(directory.resolve(BLOBS));
+		} catch (final IOException e) {
+			throw new DockerApiException(e);
+		}
+		load();
+	}
+
+	/**
+	 * One cache per directory in the JVM. Its budget is the largest
+	 * {@code maxBytes} asked for the directory: a caller asking less does not
+	 * evict the layers kept for another one.
+	 */
+	public static LayerDigestCache persistent(final Path directory, final long maxBytes) {
+		final LayerDigestCache cache = PERSISTENT.computeIfAbsent(directory.toAbsolutePath(), x -> new LayerDigestCache(x, DEFAULT_MAX_ENTRIES, maxBytes));
+		cache.raiseBudget(maxBytes);
+		return cache;
+	}
+
+	private void raiseBudget(final long requested) {
+		lock.lock();
+		try {
+			maxBytes = Math.max(maxBytes, requested);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public Optional<BlobDescriptor> get(final DescriptorDigest diffId, final LayerCodec codec, final int level) {
+		lock.lock();
+		try {
+			return Optional.ofNullable(index.get(new Key(diffId, codec, level)));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void put(final DescriptorDigest diffId, final LayerCodec codec, final int level, final BlobDescriptor compressed) {
+		lock.lock();
+		try {
+			index.put(new Key(diffId, codec, level), compressed);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Keep a compressed layer, if it fits in the cache. It is best effort: a
+	 * failure is logged, the push goes on.
+	 */
+	public void store(final BlobDescriptor compressed, final InputStream is) {
+		if ((compressed.getSize() > maxBytes) || contains(compressed.getDigest())) {
+			return;
+		}
+		Path tmp = null;
+		try {
+			// Concurrent pushes of the same layer each get their own file.
+			tmp = Files.createTempFile(directory.resolve(BLOBS), compressed.getDigest().getHash(), ".tmp");
+			Files.copy(is, tmp, StandardCopyOption.REPLACE_EXISTING);
+			lock.lock();
+			try {
+				if (contains(compressed.getDigest())) {
+					return;
+				}
+				Files.move(tmp, blobPath(compressed.getDigest()), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				blobs.put(compressed.getDigest(), compressed.getSize());
+				bytes += compressed.getSize();
+				evict();
+			} finally {
+				lock.unlock();
+			}
+		} catch (final IOException e) {
+			LOG.warn("Unable to keep layer {}: {}", compressed.getDigest(), e.getMessage());
+			LOG.trace("", e);
+		} finally {
+			deleteQuietly(tmp);
+		}
+	}
+
+	private static void deleteQuietly(final Path path) {
+		if (null == path) {
+			return;
+		}
+		try {
+			Files.deleteIfExists(path);
+		} catch (final IOException e) {
+			LOG.debug("Unable to delete {}", path);
+			LOG.trace("", e);
+		}
+	}
+
+	/**
+	 * @return The kept compressed layer, if any.
+	 */
+	public Optional<InputStream> open(final DescriptorDigest digest) {
+		if (!contains(digest)) {
+			return Optional.empty();
+		}
+		try {
+			return Optional.of(Files.newInputStream(blobPath(digest)));
+		} catch (final IOException e) {
+			LOG.debug("Cached layer {} vanished.", digest);
+			LOG.trace("", e);
+			forgetBlob(digest);
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * @return true if the compressed layer is kept.
+	 */
+	public boolean contains(final DescriptorDigest digest) {
+		lock.lock();
+		try {
+			return null != blobs.get(digest);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void forgetBlob(final DescriptorDigest digest) {
+		lock.lock();
+		try {
+			final Long size = blobs.remove(digest);
+			if (null != size) {
+				bytes -= size;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void evict() {
+		while ((bytes > maxBytes) && !blobs.isEmpty()) {
+			final Map.Entry<DescriptorDigest, Long> eldest = blobs.entrySet().iterator().next();
+			blobs.remove(eldest.getKey());
+			bytes -= eldest.getValue();
+			try {
+				Files.deleteIfExists(blobPath(eldest.getKey()));
+			} catch (final IOException e) {
+				LOG.warn("Unable to delete cached layer {}", eldest.getKey());
+				LOG.trace("", e);
+			}
+		}
+	}
+
+	private Path blobPath(final DescriptorDigest digest) {
+		return directory.resolve(BLOBS).resolve(digest.getHash());
+	}
+
+	/**
+	 * Write the digests to the cache directory; the kept layers are already
+	 * there.
+	 */
+	public void save() {
+		lock.lock();
+		try {
+			final Path file = directory.resolve(INDEX);
+			final Path tmp = file.resolveSibling(INDEX + ".tmp");
+			try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+				for (final Map.Entry<Key, BlobDescriptor> e : index.entrySet()) {
+					w.write(String.join("\t", e.getKey().diffId().toString(), e.getKey().codec().name(), Integer.toString(e.getKey().level()), e.getValue().getDigest().toString(), Long.toString(e.getValue().getSize())));
+					w.newLine();
+				}
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (final IOException e) {
+			throw new DockerApiException(e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void load() {
+		final Path file = directory.resolve(INDEX);
+		if (Files.exists(file)) {
+			try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				String line;
+				while ((line = r.readLine()) != null) {
+					final String[] f = line.split("\t");
+					if (f.length != 5) {
+						continue;
+					}
+					index.put(new Key(DescriptorDigest.fromDigest(f[0]), LayerCodec.valueOf(f[1]), Integer.parseInt(f[2])), new BlobDescriptor(Long.parseLong(f[4]), DescriptorDigest.fromDigest(f[3])));
+				}
+			} catch (IOException | DigestException | IllegalArgumentException e) {
+				LOG.warn("Unable to load layer digest cache {}, starting empty.", file);
+				LOG.trace("", e);
+				index.clear();
+			}
+		}
+		// Oldest files first, so they are the first evicted.
+		try (Stream<Path> files = Files.list(directory.resolve(BLOBS))) {
+			files.filter(x -> !x.getFileName().toString().endsWith(".tmp"))
+					.sorted(Comparator.comparingLong(LayerDigestCache::lastModified))
+					.forEach(this::loadBlob);
+		} catch (final IOException e) {
+			throw new DockerApiException(e);
+		}
+		evict();
+	}
+
+	private void loadBlob(final Path path) {
+		try {
+			final long size = Files.size(path);
+			blobs.put(DescriptorDigest.fromHash(path.getFileName().toString()), size);
+			bytes += size;
+		} catch (IOException | DigestException e) {
+			LOG.debug("Ignoring {}", path);
+			LOG.trace("", e);
+		}
+	}
+
+	private static long lastModified(final Path path) {
+		try {
+			return Files.getLastModifiedTime(path).toMillis();
+		} catch (final IOException e) {
+			return 0;
+		}
+	}
+
+	private record Key(DescriptorDigest diffId, LayerCodec codec, int level) {
+		//
+	}
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Push layers in two stages: CPU workers prepare them (compress, hash), I/O
+ * workers transfer them. A layer is compressed while another one uploads.
+ *
+ * At most {@link PushOptions#getPipelineDepth()} layers are in flight, from
+ * the start of their preparation to the end of their transfer; preparation
+ * waits when transfers lag behind, which bounds the spooled data.
+ */
+public final class LayerPipeline {
+
+	private LayerPipeline() {
+		// Nothing.
+	}
+
+	/**
+	 * @param items       Inputs.
+	 * @param submitOrder Order in which items are prepared, ie: biggest first.
+	 * @param prepare     CPU stage, may return null when there is nothing to
+	 *                    prepare.
+	 * @param transfer    I/O stage; the prepared value is closed once it returns.
+	 * @return Results, in the order of {@code items}.
+	 */
+	public static <T, P extends Closeable, R> List<R> map(final List<T> items, final Comparator<T> submitOrder, final Function<T, P> prepare, final BiFunction<T, P, R> transfer, final PushOptions options) {
+		if (items.isEmpty()) {
+			return List.of();
+		}
+		final Semaphore inFlight = new Semaphore(Math.max(1, options.getPipelineDepth()));
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		final List<CompletableFuture<R>> futures = new ArrayList<>(Collections.nCopies(items.size(), null));
+		try (ExecutorService cpu = Executors.newFixedThreadPool(Math.clamp(options.getCompressionThreads(), 1, items.size()));
+				ExecutorService io = options.getExecutionMode().newTaskExecutor(Math.clamp(options.getParallelism(), 1, items.size()))) {
+			final List<Integer> order = IntStream.range(0, items.size()).boxed().sorted(Comparator.comparing(items::get, submitOrder)).toList();
+			for (final int i : order) {
+				inFlight.acquire();
+				if (null != failure.get()) {
+					inFlight.release();
+					break;
+				}
+				final T item = items.get(i);
+				futures.set(i, CompletableFuture.supplyAsync(() -> prepare.apply(item), cpu)
+						.thenApplyAsync(p -> transfer(item, p, transfer), io)
+						.whenComplete((r, e) -> {
+							if (null != e) {
+								failure.compareAndSet(null, e);
+							}
+							inFlight.release();
+						}));
+			}
+			CompletableFuture.allOf(futures.stream().filter(Objects::nonNull).toArray(CompletableFuture[]::new))
+					.exceptionally(e -> null)
+					.join();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DockerApiException(e);
+		}
+		final Throwable e = failure.get();
+		if (null != e) {
+			final Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+			if (cause instanceof final RuntimeException re) {
+				throw re;
+			}
+			throw new DockerApiException(cause);
+		}
+		return futures.stream().map(CompletableFuture::join).toList();
+	}
+
+	/**
+	 * @return Threads each preparation may use, so that the preparations running
+	 *         together stay within {@link PushOptions#getCompressionThreads()}.
+	 */
+	public static int threadsPerItem(final int items, final PushOptions options) {
+		final int threads = Math.max(1, options.getCompressionThreads());
+		final int concurrent = Math.clamp(Math.min(items, options.getPipelineDepth()), 1, threads);
+		return Math.max(1, threads / concurrent);
+	}
+
+	private static <T, P extends Closeable, R> R transfer(final T item, final P prepared, final BiFunction<T, P, R> transfer) {
+		try (prepared) {
+			return transfer.apply(item, prepared);
+		} catch (final IOException e) {
+			throw new DockerApiException(e);
+		}
+	}
+}
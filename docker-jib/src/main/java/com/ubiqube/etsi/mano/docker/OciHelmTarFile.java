@@ -17,6 +17,7 @@
 package com.ubiqube.etsi.mano.docker;
 
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -37,21 +38,25 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.google.cloud.tools.jib.api.DescriptorDigest;
-import com.google.cloud.tools.jib.image.json.BuildableManifestTemplate.ContentDescriptorTemplate;
 import com.google.cloud.tools.jib.image.json.OciHelmManifestTemplate;
 import com.ubiqube.etsi.mano.helm.Chart;
 
-public class OciHelmTarFile implements ContainerTarFile {
+/**
+ * A Helm chart pushed as an OCI artifact. The chart is compressed once, into a
+ * spooled file, its digest and size computed on the way; close it to remove the
+ * spooled file.
+ */
+public class OciHelmTarFile implements ContainerTarFile, Closeable {
 	private final ObjectMapper json = new ObjectMapper();
 	private final ObjectMapper yaml = new ObjectMapper(new YAMLFactory());
 	private final ArchiveApi aa;
 	private final OciHelmManifestTemplate omt;
 	private final Chart chart;
-	private final File file;
+	private final SpooledBlob layer;
 	private final String config;
 
 	public OciHelmTarFile(final File file) {
-		this.file = verify(file);
+		verify(file);
 		try (TarFile tf = new TarFile(file)) {
 			this.aa = new ArchiveApi(tf);
 			final String entry = pickRootChart();
@@ -60,9 +65,9 @@ public class OciHelmTarFile implements ContainerTarFile {
 			final String sha256 = toSha256(config);
 			//
 			this.omt = new OciHelmManifestTemplate();
-			omt.setContainerConfiguration(config.length(), DescriptorDigest.fromDigest("sha256:" + sha256));
-			final String sha256File = toSha256(file);
-			omt.addLayer(file.length(), DescriptorDigest.fromDigest("sha256:" + sha256File), Map.of("org.opencontainers.image.title", getTarballName()));
+			omt.setContainerConfiguration(config.getBytes().length, DescriptorDigest.fromDigest("sha256:" + sha256));
+			this.layer = spool(file);
+			omt.addLayer(layer.getSize(), layer.getDigest(), Map.of("org.opencontainers.image.title", getTarballName()));
 		} catch (final IOException | DigestException e) {
 			throw new DockerApiException(e);
 		}
@@ -78,9 +83,7 @@ public class OciHelmTarFile implements ContainerTarFile {
 
 	@Override
 	public void copyTo(final Registry reg, final String string) {
-		final ContentDescriptorTemplate layer = omt.getLayers().getFirst();
-		try (InputStream fis = new FileInputStream(file);
-				InputStream is = packStream(fis, file)) {
+		try (InputStream is = layer.openStream()) {
 			reg.pushBlob(is, layer.getDigest());
 		} catch (final IOException e) {
 			throw new DockerApiException(e);
@@ -89,6 +92,11 @@ public class OciHelmTarFile implements ContainerTarFile {
 		reg.pushManifest(omt, chart.getVersion());
 	}
 
+	@Override
+	public void close() {
+		layer.close();
+	}
+
 	private static InputStream packStream(final InputStream fis, final File file) {
 		final String fn = file.getName();
 		if (fn.endsWith(".tgz") || fn.endsWith(".tar.gz")) {
@@ -114,16 +122,16 @@ public class OciHelmTarFile implements ContainerTarFile {
 				.getFirst();
 	}
 
-	private static String toSha256(final File file) {
+	private static SpooledBlob spool(final File file) {
 		try (FileInputStream fis = new FileInputStream(file);
 				InputStream in = packStream(fis, file)) {
-			return toSha256Internal(in);
+			return new SpooledBlob(in);
 		} catch (final IOException e) {
 			throw new DockerApiException(e);
 		}
 	}
 
-	private static String toSha256(final String jsonString) {
+	static String toSha256(final String jsonString) {
 		try (ByteArrayInputStream in = new ByteArrayInputStream(jsonString.getBytes())) {
 			return toSha256Internal(in);
 		} catch (final IOException e) {
@@ -157,7 +165,7 @@ public class OciHelmTarFile implements ContainerTarFile {
 		}
 	}
 
-	private static String bytesToHex(final byte[] hash) {
+	static String bytesToHex(final byte[] hash) {
 		return IntStream.range(0, hash.length)
 				.mapToObj(x -> hash[x])
 				.map(b -> String.format("%02X", b))
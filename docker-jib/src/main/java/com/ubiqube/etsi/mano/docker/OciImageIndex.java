@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.io.IOException;
+import java.security.DigestException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.cloud.tools.jib.api.DescriptorDigest;
+import com.google.cloud.tools.jib.blob.BlobDescriptor;
+import com.google.cloud.tools.jib.hash.Digests;
+import com.google.cloud.tools.jib.image.json.BuildableManifestTemplate;
+import com.google.cloud.tools.jib.image.json.BuildableManifestTemplate.ContentDescriptorTemplate;
+import com.google.cloud.tools.jib.image.json.OciManifestTemplate;
+import com.google.cloud.tools.jib.image.json.OciPlatformIndexTemplate;
+
+/**
+ * The images listed by an OCI layout {@code index.json}, one per platform.
+ * Nested indexes, as written by multi-platform builds, are flattened.
+ */
+final class OciImageIndex {
+	private final List<Image> images = new ArrayList<>();
+
+	/**
+	 * @param mapper Mapper reading the JSON documents.
+	 * @param index  Content of {@code index.json}.
+	 * @param blobs  Blob content by sha256 hash.
+	 */
+	OciImageIndex(final ObjectMapper mapper, final byte[] index, final Function<String, byte[]> blobs) {
+		read(mapper, index, blobs);
+		if (images.isEmpty()) {
+			throw new DockerApiException("No manifest in OCI index.");
+		}
+	}
+
+	private void read(final ObjectMapper mapper, final byte[] index, final Function<String, byte[]> blobs) {
+		try {
+			final JsonNode root = mapper.readTree(index);
+			if (2 != root.path("schemaVersion").asInt()) {
+				throw new DockerApiException("Invalid OCI schema version: " + root.path("schemaVersion"));
+			}
+			for (final JsonNode descriptor : root.path("manifests")) {
+				final byte[] blob = blobs.apply(toDigest(descriptor).getHash());
+				if (OciPlatformIndexTemplate.MEDIA_TYPE.equals(descriptor.path("mediaType").asText())) {
+					read(mapper, blob, blobs);
+					continue;
+				}
+				final OciManifestTemplate manifest = mapper.readValue(blob, OciManifestTemplate.class);
+				final List<String> mediaTypes = StreamSupport.stream(mapper.readTree(blob).path("layers").spliterator(), false)
+						.map(x -> x.path("mediaType").asText(LayerCodec.GZIP.getMediaType()))
+						.toList();
+				final DescriptorDigest configDigest = Optional.ofNullable(manifest.getContainerConfiguration())
+						.map(ContentDescriptorTemplate::getDigest)
+						.orElseThrow(() -> new DockerApiException("Unknown configuration digest in manifest: " + descriptor.path("digest").asText()));
+				images.add(new Image((ObjectNode) descriptor, manifest, mediaTypes, blobs.apply(configDigest.getHash())));
+			}
+		} catch (final IOException e) {
+			throw new DockerApiException(e);
+		}
+	}
+
+	List<Image> getImages() {
+		return images;
+	}
+
+	/**
+	 * A single image is pushed under the tag. Otherwise the platform manifests
+	 * are pushed by digest, then the index under the tag, so the tag never points
+	 * at a partial image.
+	 *
+	 * @param manifests The manifest of each image, in the order of
+	 *                  {@link #getImages()}; their configuration and layers are
+	 *                  already pushed.
+	 */
+	DescriptorDigest push(final Registry reg, final List<? extends BuildableManifestTemplate> manifests, final String tag, final PushOptions options) {
+		if (manifests.size() == 1) {
+			return reg.pushManifest(manifests.get(0), tag);
+		}
+		final List<Integer> order = IntStream.range(0, manifests.size()).boxed().toList();
+		final List<BlobDescriptor> pushed = ParallelTasks.map(order, options.getParallelism(), Comparator.naturalOrder(), i -> pushByDigest(reg, manifests.get(i)), options.getExecutionMode());
+		final OciPlatformIndexTemplate index = new OciPlatformIndexTemplate();
+		for (int i = 0; i < images.size(); i++) {
+			final ObjectNode descriptor = images.get(i).descriptor().deepCopy();
+			descriptor.put("mediaType", manifests.get(i).getManifestMediaType());
+			descriptor.put("digest", pushed.get(i).getDigest().toString());
+			descriptor.put("size", pushed.get(i).getSize());
+			index.addManifest(descriptor);
+		}
+		return reg.pushManifest(index, tag);
+	}
+
+	private static BlobDescriptor pushByDigest(final Registry reg, final BuildableManifestTemplate manifest) {
+		final BlobDescriptor descriptor;
+		try {
+			descriptor = Digests.computeDigest(manifest);
+		} catch (final IOException e) {
+			throw new DockerApiException(e);
+		}
+		reg.pushManifest(manifest, descriptor.getDigest().toString());
+		return descriptor;
+	}
+
+	private static DescriptorDigest toDigest(final JsonNode descriptor) {
+		try {
+			return DescriptorDigest.fromDigest(descriptor.path("digest").asText());
+		} catch (final DigestException e) {
+			throw new DockerApiException(e);
+		}
+	}
+
+	/**
+	 * @param descriptor Descriptor of the manifest in the archive index.
+	 * @param mediaTypes Layer media types, in the manifest order.
+	 */
+	record Image(ObjectNode descriptor, OciManifestTemplate manifest, List<String> mediaTypes, byte[] configRaw) {
+		//
+	}
+}
@@ -18,9 +18,12 @@ package com.ubiqube.etsi.mano.docker;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.DigestException;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.IntStream;
 
 import org.apache.commons.compress.archivers.tar.TarFile;
 
@@ -28,62 +31,162 @@ import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.google.cloud.tools.jib.api.DescriptorDigest;
-import com.google.cloud.tools.jib.image.json.OciIndexTemplate;
-import com.google.cloud.tools.jib.image.json.OciIndexTemplate.ManifestDescriptorTemplate;
-import com.google.cloud.tools.jib.image.json.OciManifestTemplate;
+import com.google.cloud.tools.jib.image.json.BuildableManifestTemplate.ContentDescriptorTemplate;
+import com.google.cloud.tools.jib.image.json.OciLayerManifestTemplate;
 
+/**
+ * Push an OCI layout archive, single or multi-platform.
+ *
+ * The layers of all platforms are pushed together, once per digest, so a
+ * multi-platform image costs the union of its layers.
+ */
 public class OciTarFile implements ContainerTarFile {
+	private static final String BLOBS_SHA256 = "blobs/sha256/";
 	private final ObjectMapper mapper = JsonMapper.builder().configure(MapperFeature.ACCEPT_CASE_INSENSITIVE_PROPERTIES, true).build();
-	private final ManifestDescriptorTemplate mf;
-	private final OciManifestTemplate config;
-	private final byte[] configRaw;
-	private final String configHash;
+	private final OciImageIndex index;
 	private final ArchiveApi aa;
+	private final PushOptions options;
 
 	public OciTarFile(final TarFile tarFile) {
-		this.aa = new ArchiveApi(tarFile);
-		final OciIndexTemplate ociIndex;
+		this(tarFile, PushOptions.builder().build());
+	}
+
+	public OciTarFile(final TarFile tarFile, final PushOptions options) {
+		this(new ArchiveApi(tarFile), options);
+	}
+
+	public OciTarFile(final ArchiveApi archive, final PushOptions options) {
+		this.aa = archive;
+		this.options = options;
 		try (final InputStream indexIs = aa.getInputStream("index.json")) {
-			ociIndex = mapper.readValue(indexIs, OciIndexTemplate.class);
+			this.index = new OciImageIndex(mapper, indexIs.readAllBytes(), x -> aa.getContent(BLOBS_SHA256 + x));
 		} catch (final IOException e) {
 			throw new DockerApiException(e);
 		}
-		if (2 != ociIndex.getSchemaVersion()) {
-			throw new DockerApiException("Invalid OCI schema version: " + ociIndex.getSchemaVersion());
+	}
+
+	@Override
+	public void copyTo(final Registry reg, final String tag) {
+		final Map<DescriptorDigest, Layer> layers = new LinkedHashMap<>();
+		for (final OciImageIndex.Image image : index.getImages()) {
+			final List<ContentDescriptorTemplate> imageLayers = image.manifest().getLayers();
+			for (int i = 0; i < imageLayers.size(); i++) {
+				layers.putIfAbsent(imageLayers.get(i).getDigest(), new Layer(imageLayers.get(i), image.mediaTypes().get(i)));
+			}
 		}
-		final List<ManifestDescriptorTemplate> mfs = ociIndex.getManifests();
-		if (mfs.size() != 1) {
-			throw new DockerApiException("Only single OCI manifest is supported.");
+		final List<Layer> distinct = List.copyOf(layers.values());
+		final List<PushedLayer> pushed = null == options.getCompression() ? pushLayers(reg, distinct) : recompressLayers(reg, distinct, options.getCompression());
+		final Map<DescriptorDigest, PushedLayer> byDigest = new LinkedHashMap<>();
+		IntStream.range(0, distinct.size()).forEach(i -> byDigest.put(distinct.get(i).descriptor().getDigest(), pushed.get(i)));
+		final List<OciImageIndex.Image> images = index.getImages();
+		final Comparator<OciImageIndex.Image> any = (a, b) -> 0;
+		final List<OciLayerManifestTemplate> manifests = ParallelTasks.map(images, options.getParallelism(), any, x -> pushConfig(reg, x, byDigest), options.getExecutionMode());
+		index.push(reg, manifests, tag, options);
+	}
+
+	private static OciLayerManifestTemplate pushConfig(final Registry reg, final OciImageIndex.Image image, final Map<DescriptorDigest, PushedLayer> pushed) {
+		final OciLayerManifestTemplate mft = new OciLayerManifestTemplate();
+		image.manifest().getLayers().forEach(x -> {
+			final PushedLayer layer = pushed.get(x.getDigest());
+			mft.addLayer(layer.size(), layer.digest(), layer.mediaType());
+		});
+		mft.setContainerConfiguration(image.configRaw().length, image.manifest().getContainerConfiguration().getDigest());
+		reg.pushConfig(image.configRaw());
+		return mft;
+	}
+
+	private List<PushedLayer> pushLayers(final Registry reg, final List<Layer> layers) {
+		final BlobPlan plan = reg.checkBlobs(layers.stream().map(x -> x.descriptor().getDigest()).toList());
+		final List<ContentDescriptorTemplate> missing = layers.stream().map(Layer::descriptor).filter(x -> plan.isMissing(x.getDigest())).toList();
+		final Comparator<ContentDescriptorTemplate> biggestFirst = Comparator.comparingLong(ContentDescriptorTemplate::getSize).reversed();
+		ParallelTasks.map(missing, options.getParallelism(), biggestFirst, x -> pushLayer(reg, plan, x), options.getExecutionMode());
+		return layers.stream()
+				.map(x -> new PushedLayer(x.mediaType(), plan.getSize(x.descriptor().getDigest()), x.descriptor().getDigest()))
+				.toList();
+	}
+
+	/**
+	 * Layers are recompressed with the codec, unless they already use it or are
+	 * not tar layers; the new digest is only known once compressed.
+	 */
+	private List<PushedLayer> recompressLayers(final Registry reg, final List<Layer> layers, final LayerCodec codec) {
+		final int level = Optional.ofNullable(options.getCompressionLevel()).orElse(codec.getDefaultLevel());
+		final Comparator<Layer> biggestFirst = Comparator.comparingLong((final Layer x) -> x.descriptor().getSize()).reversed();
+		final int threads = LayerPipeline.threadsPerItem(layers.size(), options);
+		return LayerPipeline.map(layers, biggestFirst, x -> recompress(reg, codec, level, threads, x), (x, sb) -> pushRecompressed(reg, codec, x, sb), options);
+	}
+
+	/**
+	 * CPU stage of the pipeline.
+	 *
+	 * @return The recompressed layer, or null to push it as it is.
+	 */
+	private SpooledBlob recompress(final Registry reg, final LayerCodec codec, final int level, final int threads, final Layer layer) {
+		if (codec.getMediaType().equals(layer.mediaType())) {
+			return null;
 		}
-		this.mf = mfs.get(0);
-		this.configHash = Optional.ofNullable(mf.getDigest()).map(DescriptorDigest::getHash).orElseThrow(() -> new DockerApiException("Unknown digest: " + mf.getDigest()));
-		final byte[] blob = aa.getContent("blobs/sha256/" + configHash);
-		this.configRaw = blob;
-		try {
-			this.config = mapper.readValue(blob, OciManifestTemplate.class);
+		try (InputStream blobis = openLayer(layer.descriptor())) {
+			final Optional<InputStream> raw = LayerCodec.decode(blobis, layer.mediaType());
+			if (raw.isEmpty()) {
+				return null;
+			}
+			try (InputStream is = raw.get()) {
+				return reg.timed("compression", () -> codec.spool(is, level, threads));
+			}
 		} catch (final IOException e) {
 			throw new DockerApiException(e);
 		}
 	}
 
-	@Override
-	public void copyTo(final Registry reg, final String tag) {
-		final OciManifestTemplate mft = new OciManifestTemplate();
-		config.getLayers().forEach(x -> {
-			final String digest = Optional.ofNullable(x.getDigest()).map(DescriptorDigest::getHash).orElseThrow(() -> new DockerApiException("Unknown digest: " + mf.getDigest()));
-			try (final InputStream blobis = aa.getInputStream("blobs/sha256/" + digest)) {
-				final long sz = reg.pushBlob(blobis, x.getDigest());
-				mft.addLayer(sz, x.getDigest());
+	/**
+	 * I/O stage of the pipeline.
+	 */
+	private PushedLayer pushRecompressed(final Registry reg, final LayerCodec codec, final Layer layer, final SpooledBlob sb) {
+		if (null != sb) {
+			try (InputStream sbis = sb.openStream()) {
+				reg.pushBlob(sbis, sb.getDigest());
+				return new PushedLayer(codec.getMediaType(), sb.getSize(), sb.getDigest());
 			} catch (final IOException e) {
 				throw new DockerApiException(e);
 			}
-		});
-		try {
-			mft.setContainerConfiguration(configRaw.length, DescriptorDigest.fromHash(configHash));
-		} catch (final DigestException e) {
+		}
+		try (InputStream blobis = openLayer(layer.descriptor())) {
+			return new PushedLayer(layer.mediaType(), reg.pushBlob(blobis, layer.descriptor().getDigest()), layer.descriptor().getDigest());
+		} catch (final IOException e) {
 			throw new DockerApiException(e);
 		}
-		reg.pushConfig(configRaw);
-		reg.pushManifest(mft, tag);
+	}
+
+	private InputStream openLayer(final ContentDescriptorTemplate layer) {
+		return aa.getInputStream(layerPath(layer));
+	}
+
+	private String layerPath(final ContentDescriptorTemplate layer) {
+		final String digest = Optional.ofNullable(layer.getDigest()).map(DescriptorDigest::getHash).orElseThrow(() -> new DockerApiException("Unknown layer digest."));
+		return BLOBS_SHA256 + digest;
+	}
+
+	private long pushLayer(final Registry reg, final BlobPlan plan, final ContentDescriptorTemplate layer) {
+		final Optional<FileRegionBlob> region = aa.getRegion(layerPath(layer), layer.getDigest());
+		if (region.isPresent()) {
+			final long size = reg.uploadBlob(region.get(), layer.getDigest());
+			plan.uploaded(layer.getDigest(), size);
+			return size;
+		}
+		try (final InputStream blobis = openLayer(layer)) {
+			final long size = reg.uploadBlob(blobis, layer.getDigest());
+			plan.uploaded(layer.getDigest(), size);
+			return size;
+		} catch (final IOException e) {
+			throw new DockerApiException(e);
+		}
+	}
+
+	private record Layer(ContentDescriptorTemplate descriptor, String mediaType) {
+		//
+	}
+
+	private record PushedLayer(String mediaType, long size, DescriptorDigest digest) {
+		//
 	}
 }
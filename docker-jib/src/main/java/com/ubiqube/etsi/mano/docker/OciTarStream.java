@@ -0,0 +1,278 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.google.cloud.tools.jib.api.DescriptorDigest;
+import com.google.cloud.tools.jib.image.json.BuildableManifestTemplate.ContentDescriptorTemplate;
+import com.google.cloud.tools.jib.image.json.OciLayerManifestTemplate;
+
+/**
+ * Push an OCI layout archive in a single pass over its tar stream.
+ *
+ * Blobs are content addressed, so large layers are uploaded as soon as they are
+ * read. Small blobs, and large ones looking like JSON (manifests,
+ * configurations), are kept until {@code index.json} tells which one is which:
+ * in memory up to a total, then in temporary files.
+ */
+public class OciTarStream implements ContainerTarFile {
+	private static final Logger LOG = LoggerFactory.getLogger(OciTarStream.class);
+	private static final String BLOBS = "blobs/";
+	private static final String BLOBS_SHA256 = "blobs/sha256/";
+	private static final String INDEX = "index.json";
+	private static final String OCI_LAYOUT = "oci-layout";
+	private static final long INLINE_BLOB_LIMIT = 1024L * 1024L;
+	private static final long INLINE_TOTAL_LIMIT = 64L * 1024L * 1024L;
+	private final ObjectMapper mapper = JsonMapper.builder().configure(MapperFeature.ACCEPT_CASE_INSENSITIVE_PROPERTIES, true).build();
+	private final InputStream is;
+	private final PushOptions options;
+	private final long inlineBlobLimit;
+	private final long inlineTotalLimit;
+
+	public OciTarStream(final InputStream is) {
+		this(is, PushOptions.builder().build());
+	}
+
+	public OciTarStream(final InputStream is, final PushOptions options) {
+		this(is, options, INLINE_BLOB_LIMIT, INLINE_TOTAL_LIMIT);
+	}
+
+	/**
+	 * @param inlineBlobLimit  Blobs up to this size are kept until the end of the
+	 *                         stream.
+	 * @param inlineTotalLimit Memory for the kept blobs, others go to temporary
+	 *                         files.
+	 */
+	OciTarStream(final InputStream is, final PushOptions options, final long inlineBlobLimit, final long inlineTotalLimit) {
+		this.is = is;
+		this.options = options;
+		this.inlineBlobLimit = inlineBlobLimit;
+		this.inlineTotalLimit = inlineTotalLimit;
+	}
+
+	/**
+	 * Peek at the first tar header without consuming it.
+	 *
+	 * @param is A stream supporting mark/reset.
+	 * @return true if the archive starts like an OCI layout.
+	 */
+	public static boolean isOciLayout(final InputStream is) {
+		try {
+			is.mark(TarConstants.DEFAULT_RCDSIZE);
+			final byte[] header = is.readNBytes(TarConstants.DEFAULT_RCDSIZE);
+			is.reset();
+			if (header.length < TarConstants.DEFAULT_RCDSIZE) {
+				return false;
+			}
+			final String name = new TarArchiveEntry(header).getName();
+			return name.startsWith(BLOBS) || INDEX.equals(name) || OCI_LAYOUT.equals(name);
+		} catch (final IOException e) {
+			throw new DockerApiException(e);
+		} catch (final IllegalArgumentException e) {
+			LOG.trace("", e);
+			return false;
+		}
+	}
+
+	@Override
+	public void copyTo(final Registry reg, final String tag) {
+		try (KeptBlobs kept = new KeptBlobs(inlineTotalLimit)) {
+			final Map<String, Long> pushed = new HashMap<>();
+			final byte[] index = scan(reg, kept, pushed);
+			final OciImageIndex images = new OciImageIndex(mapper, index, kept::getContent);
+			final List<OciLayerManifestTemplate> manifests = images.getImages().stream()
+					.map(x -> pushImage(reg, x, kept, pushed))
+					.toList();
+			LOG.debug("Pushing manifest with tag {}", tag);
+			images.push(reg, manifests, tag, options);
+		}
+	}
+
+	/**
+	 * @return The content of {@code index.json}.
+	 */
+	private byte[] scan(final Registry reg, final KeptBlobs kept, final Map<String, Long> pushed) {
+		byte[] index = null;
+		try {
+			final TarArchiveInputStream tis = new TarArchiveInputStream(is);
+			TarArchiveEntry entry;
+			while ((entry = tis.getNextEntry()) != null) {
+				if (!entry.isFile()) {
+					continue;
+				}
+				final String name = entry.getName();
+				if (INDEX.equals(name)) {
+					index = tis.readAllBytes();
+				} else if (name.startsWith(BLOBS_SHA256)) {
+					final String hash = name.substring(BLOBS_SHA256.length());
+					if (entry.getSize() <= inlineBlobLimit) {
+						kept.keep(hash, tis, entry.getSize());
+						continue;
+					}
+					// Jib closes the blob stream once uploaded, the tar stream must survive it.
+					final BufferedInputStream bis = new BufferedInputStream(new CloseShieldInputStream(tis));
+					if (looksLikeJson(bis)) {
+						kept.keep(hash, bis, entry.getSize());
+					} else {
+						LOG.debug("Streaming blob: {}", hash);
+						pushed.put(hash, reg.pushBlob(bis, toDigest(hash)));
+					}
+				}
+			}
+		} catch (final IOException e) {
+			throw new DockerApiException(e);
+		}
+		if (null == index) {
+			throw new DockerException("Unable to find " + INDEX + ", in tar stream.");
+		}
+		return index;
+	}
+
+	/**
+	 * Layers are compressed or tar, a manifest or configuration starts with a
+	 * brace. A layer mistaken for JSON is only kept instead of being streamed.
+	 */
+	private static boolean looksLikeJson(final BufferedInputStream bis) throws IOException {
+		bis.mark(1);
+		final int first = bis.read();
+		bis.reset();
+		return first == '{';
+	}
+
+	/**
+	 * Push the kept layers and the configuration; layers shared by several
+	 * platforms are pushed once.
+	 */
+	private static OciLayerManifestTemplate pushImage(final Registry reg, final OciImageIndex.Image image, final KeptBlobs kept, final Map<String, Long> pushed) {
+		final OciLayerManifestTemplate mft = new OciLayerManifestTemplate();
+		final List<ContentDescriptorTemplate> layers = image.manifest().getLayers();
+		for (int i = 0; i < layers.size(); i++) {
+			final ContentDescriptorTemplate layer = layers.get(i);
+			final Long sz = pushed.computeIfAbsent(toHash(layer), k -> {
+				try (InputStream blob = kept.open(k)) {
+					return reg.pushBlob(blob, layer.getDigest());
+				} catch (final IOException e) {
+					throw new DockerApiException(e);
+				}
+			});
+			mft.addLayer(sz, layer.getDigest(), image.mediaTypes().get(i));
+		}
+		final DescriptorDigest configDigest = reg.pushConfig(image.configRaw());
+		mft.setContainerConfiguration(image.configRaw().length, configDigest);
+		return mft;
+	}
+
+	private static String toHash(final ContentDescriptorTemplate descriptor) {
+		return Optional.ofNullable(descriptor)
+				.map(ContentDescriptorTemplate::getDigest)
+				.map(DescriptorDigest::getHash)
+				.orElseThrow(() -> new DockerApiException("Unknown digest in OCI manifest."));
+	}
+
+	private static DescriptorDigest toDigest(final String hash) {
+		try {
+			return DescriptorDigest.fromHash(hash);
+		} catch (final DigestException e) {
+			throw new DockerApiException(e);
+		}
+	}
+
+	/**
+	 * Blobs kept until the end of the stream.
+	 */
+	private static class KeptBlobs implements AutoCloseable {
+		private final Map<String, byte[]> inline = new HashMap<>();
+		private final Map<String, Path> spooled = new HashMap<>();
+		private final List<Path> files = new ArrayList<>();
+		private final long inlineTotalLimit;
+		private long inlineTotal;
+
+		KeptBlobs(final long inlineTotalLimit) {
+			this.inlineTotalLimit = inlineTotalLimit;
+		}
+
+		void keep(final String hash, final InputStream blob, final long size) throws IOException {
+			if ((inlineTotal + size) <= inlineTotalLimit) {
+				inline.put(hash, blob.readAllBytes());
+				inlineTotal += size;
+				return;
+			}
+			final Path file = Files.createTempFile("mano", ".blob");
+			files.add(file);
+			Files.copy(blob, file, StandardCopyOption.REPLACE_EXISTING);
+			spooled.put(hash, file);
+		}
+
+		byte[] getContent(final String hash) {
+			final byte[] content = inline.get(hash);
+			if (null != content) {
+				return content;
+			}
+			try {
+				return Files.readAllBytes(getFile(hash));
+			} catch (final IOException e) {
+				throw new DockerApiException(e);
+			}
+		}
+
+		InputStream open(final String hash) throws IOException {
+			final byte[] content = inline.get(hash);
+			if (null != content) {
+				return new ByteArrayInputStream(content);
+			}
+			return Files.newInputStream(getFile(hash));
+		}
+
+		private Path getFile(final String hash) {
+			return Optional.ofNullable(spooled.get(hash)).orElseThrow(() -> new DockerException("Unable to find blob " + hash + ", in tar stream."));
+		}
+
+		@Override
+		public void close() {
+			files.forEach(x -> {
+				try {
+					Files.deleteIfExists(x);
+				} catch (final IOException e) {
+					LOG.warn("Unable to delete {}", x);
+					LOG.trace("", e);
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,373 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+/**
+ * Decompress a bzip2 stream using several threads. bzip2 blocks are
+ * independent and start with a 48 bits magic which is not byte aligned; the
+ * input is scanned for it, and every block is re-wrapped in a single block
+ * bzip2 stream decoded by a worker. Block and stream CRCs are checked,
+ * concatenated streams are supported.
+ *
+ * The magic may appear by chance inside compressed data; a block failing to
+ * decode is then joined with the next one and decoded again.
+ */
+public class ParallelBZip2CompressorInputStream extends InputStream {
+	private static final long BLOCK_MAGIC = 0x314159265359L;
+	private static final long EOS_MAGIC = 0x177245385090L;
+	private static final long MAGIC_MASK = 0xFFFFFFFFFFFFL;
+	private static final int MAGIC_BITS = 48;
+	private static final byte[] HEADER = { 'B', 'Z', 'h', '9' };
+	private static final int READ_SIZE = 64 * 1024;
+	/**
+	 * Largest compressed block: 900k symbols of at most 20 bits each, plus the
+	 * selectors and the tables. Input without a block magic beyond this is not
+	 * bzip2.
+	 */
+	private static final int MAX_BLOCK_BYTES = ((900_000 * 20) / 8) + (64 * 1024);
+
+	private final InputStream in;
+	private final ExecutorService executor;
+	private final int maxInFlight;
+	private final Deque<Task> inFlight = new ArrayDeque<>();
+	/** Compressed bytes, from the start of the current block. */
+	private byte[] buf = new byte[2 * READ_SIZE];
+	private int bufLen;
+	/** Number of bytes of {@link #buf} already scanned. */
+	private int scanned;
+	private long window;
+	private long windowBits;
+	/** Bit position of the current block in {@link #buf}, -1 before the first one. */
+	private long blockStart = -1;
+	/** Bit position of the last end of stream marker in the current block, -1 if none. */
+	private long blockEos = -1;
+	private boolean headerChecked;
+	/** Combined CRC of the blocks decoded so far in the current stream. */
+	private int streamCrc;
+	private int streamBlocks;
+	private boolean eof;
+	private byte[] current = new byte[0];
+	private int pos;
+
+	public ParallelBZip2CompressorInputStream(final InputStream in) {
+		this(in, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param in      bzip2 stream.
+	 * @param threads Number of decompressing threads.
+	 */
+	public ParallelBZip2CompressorInputStream(final InputStream in, final int threads) {
+		this.in = in;
+		this.maxInFlight = Math.max(1, threads) * 2;
+		this.executor = Executors.newFixedThreadPool(Math.max(1, threads), Thread.ofPlatform().daemon().name("bzip2-", 0).factory());
+	}
+
+	@Override
+	public int read() throws IOException {
+		final byte[] b = new byte[1];
+		final int n = read(b, 0, 1);
+		return n == -1 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		while ((current != null) && (pos == current.length)) {
+			current = nextChunk();
+			pos = 0;
+		}
+		if (current == null) {
+			return -1;
+		}
+		final int n = Math.min(len, current.length - pos);
+		System.arraycopy(current, pos, b, off, n);
+		pos += n;
+		return n;
+	}
+
+	private byte[] nextChunk() throws IOException {
+		fill();
+		Task task = inFlight.poll();
+		if (task == null) {
+			if (streamBlocks > 0) {
+				throw new IOException("BZip2 stream is truncated, end of stream marker missing");
+			}
+			return null;
+		}
+		byte[] ret = null;
+		while (ret == null) {
+			try {
+				ret = await(task.result());
+			} catch (final IOException e) {
+				task = retry(task, e);
+			}
+		}
+		checkStreamCrc(task.segment());
+		return ret;
+	}
+
+	/**
+	 * Fold the block CRC in the stream CRC, and compare it with the stored one
+	 * when the block ends its stream.
+	 */
+	private void checkStreamCrc(final Segment segment) throws IOException {
+		streamCrc = Integer.rotateLeft(streamCrc, 1) ^ readInt(segment.bits(), MAGIC_BITS);
+		streamBlocks++;
+		final long eos = segment.payloadBits();
+		if (eos == segment.bitLength()) {
+			return;
+		}
+		if ((eos + MAGIC_BITS + 32) > segment.bitLength()) {
+			throw new IOException("BZip2 stream is truncated, stream CRC missing");
+		}
+		final int stored = readInt(segment.bits(), eos + MAGIC_BITS);
+		if (stored != streamCrc) {
+			throw new IOException("BZip2 stream CRC error");
+		}
+		streamCrc = 0;
+		streamBlocks = 0;
+	}
+
+	/**
+	 * A block failing to decode is first decoded again ignoring an end of stream
+	 * marker found by chance in its data, then joined with the next block.
+	 */
+	private Task retry(final Task task, final IOException e) throws IOException {
+		final Segment segment = task.segment();
+		if (segment.payloadBits() < segment.bitLength()) {
+			final Segment whole = new Segment(segment.bits(), segment.bitLength(), segment.bitLength());
+			return new Task(whole, executor.submit(() -> decode(whole)));
+		}
+		fill();
+		final Task next = inFlight.poll();
+		if (next == null) {
+			throw e;
+		}
+		next.result().cancel(true);
+		final Segment joined = segment.join(next.segment());
+		return new Task(joined, executor.submit(() -> decode(joined)));
+	}
+
+	/**
+	 * Read and scan the input until enough blocks are queued.
+	 */
+	private void fill() throws IOException {
+		while (!eof && (inFlight.size() < maxInFlight)) {
+			if ((bufLen + READ_SIZE) > buf.length) {
+				buf = Arrays.copyOf(buf, Math.max(buf.length * 2, bufLen + READ_SIZE));
+			}
+			final int n = in.read(buf, bufLen, READ_SIZE);
+			if (n == -1) {
+				eof = true;
+				checkHeader();
+				if (blockStart >= 0) {
+					submit(blockStart, (long) bufLen * 8);
+				}
+				return;
+			}
+			bufLen += n;
+			checkHeader();
+			scan();
+			compact();
+			if (bufLen > MAX_BLOCK_BYTES) {
+				throw new IOException("BZip2 block larger than " + MAX_BLOCK_BYTES + " bytes, stream is corrupted");
+			}
+		}
+	}
+
+	private void checkHeader() throws IOException {
+		if (headerChecked || (!eof && (bufLen < 3))) {
+			return;
+		}
+		if ((bufLen < 3) || (buf[0] != 'B') || (buf[1] != 'Z') || (buf[2] != 'h')) {
+			throw new IOException("Stream is not in the BZip2 format");
+		}
+		headerChecked = true;
+	}
+
+	private void scan() {
+		for (; scanned < bufLen; scanned++) {
+			window = (window << 8) | (buf[scanned] & 0xff);
+			windowBits += 8;
+			if (windowBits < MAGIC_BITS) {
+				continue;
+			}
+			for (int shift = 7; shift >= 0; shift--) {
+				final long candidate = (window >>> shift) & MAGIC_MASK;
+				final long start = (((long) scanned + 1) * 8) - shift - MAGIC_BITS;
+				if ((candidate == BLOCK_MAGIC) && (start >= 0)) {
+					if (blockStart >= 0) {
+						submit(blockStart, start);
+					}
+					blockStart = start;
+					blockEos = -1;
+				} else if ((candidate == EOS_MAGIC) && (blockStart >= 0) && (start > blockStart)) {
+					blockEos = start;
+				}
+			}
+		}
+	}
+
+	private void submit(final long start, final long end) {
+		final long payloadEnd = blockEos < 0 ? end : blockEos;
+		final Segment segment = new Segment(extract(buf, start, end - start), end - start, payloadEnd - start);
+		inFlight.add(new Task(segment, executor.submit(() -> decode(segment))));
+	}
+
+	/**
+	 * Drop the bytes before the current block, keeping a few bytes when no block
+	 * has been found yet.
+	 */
+	private void compact() {
+		final long keepBit = blockStart >= 0 ? blockStart : Math.max(0, ((long) bufLen * 8) - 64);
+		final int drop = (int) (keepBit >>> 3);
+		if (drop == 0) {
+			return;
+		}
+		System.arraycopy(buf, drop, buf, 0, bufLen - drop);
+		bufLen -= drop;
+		scanned -= drop;
+		if (blockStart >= 0) {
+			blockStart -= (long) drop * 8;
+		}
+		if (blockEos >= 0) {
+			blockEos -= (long) drop * 8;
+		}
+	}
+
+	/**
+	 * Wrap the block in a stream of its own: header, block, end of stream marker,
+	 * and the block CRC as the stream CRC.
+	 */
+	private static byte[] decode(final Segment segment) throws IOException {
+		final long payload = segment.payloadBits();
+		final byte[] stream = new byte[(int) ((32 + payload + MAGIC_BITS + 32 + 7) >>> 3)];
+		System.arraycopy(HEADER, 0, stream, 0, HEADER.length);
+		copyBits(segment.bits(), 0, stream, 32, payload);
+		final byte[] trailer = new byte[10];
+		for (int i = 0; i < 6; i++) {
+			trailer[i] = (byte) (EOS_MAGIC >>> (40 - (8 * i)));
+		}
+		copyBits(segment.bits(), MAGIC_BITS, trailer, 48, 32);
+		copyBits(trailer, 0, stream, 32 + payload, 80);
+		try (InputStream is = new BZip2CompressorInputStream(new ByteArrayInputStream(stream))) {
+			return is.readAllBytes();
+		}
+	}
+
+	private static int readInt(final byte[] src, final long from) {
+		final byte[] b = new byte[4];
+		copyBits(src, from, b, 0, 32);
+		return ((b[0] & 0xff) << 24) | ((b[1] & 0xff) << 16) | ((b[2] & 0xff) << 8) | (b[3] & 0xff);
+	}
+
+	private static byte[] extract(final byte[] src, final long from, final long length) {
+		final byte[] ret = new byte[(int) ((length + 7) >>> 3)];
+		copyBits(src, from, ret, 0, length);
+		return ret;
+	}
+
+	/**
+	 * Copy bits, most significant first; fast when the destination is byte
+	 * aligned.
+	 */
+	private static void copyBits(final byte[] src, final long srcBit, final byte[] dst, final long dstBit, final long length) {
+		long s = srcBit;
+		long d = dstBit;
+		long n = length;
+		if ((d & 7) == 0) {
+			final int shift = (int) (s & 7);
+			int i = (int) (s >>> 3);
+			int j = (int) (d >>> 3);
+			final long bytes = n >>> 3;
+			for (long k = 0; k < bytes; k++, i++, j++) {
+				int v = (src[i] & 0xff) << shift;
+				if (shift != 0) {
+					v |= (src[i + 1] & 0xff) >>> (8 - shift);
+				}
+				dst[j] = (byte) v;
+			}
+			s += bytes * 8;
+			d += bytes * 8;
+			n -= bytes * 8;
+		}
+		for (long k = 0; k < n; k++, s++, d++) {
+			final int bit = (src[(int) (s >>> 3)] >>> (7 - (int) (s & 7))) & 1;
+			final int mask = 1 << (7 - (int) (d & 7));
+			if (bit == 0) {
+				dst[(int) (d >>> 3)] &= (byte) ~mask;
+			} else {
+				dst[(int) (d >>> 3)] |= (byte) mask;
+			}
+		}
+	}
+
+	private static byte[] await(final Future<byte[]> future) throws IOException {
+		try {
+			return future.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof final IOException ioe) {
+				throw ioe;
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		executor.shutdownNow();
+		in.close();
+	}
+
+	/**
+	 * Bits of a block up to the next block, aligned on the first byte.
+	 *
+	 * @param bitLength   All the bits, up to the next block.
+	 * @param payloadBits Bits up to the last end of stream marker, if any.
+	 */
+	private record Segment(byte[] bits, long bitLength, long payloadBits) {
+		Segment join(final Segment next) {
+			final byte[] joined = new byte[(int) ((bitLength + next.bitLength + 7) >>> 3)];
+			copyBits(bits, 0, joined, 0, bitLength);
+			copyBits(next.bits, 0, joined, bitLength, next.bitLength);
+			return new Segment(joined, bitLength + next.bitLength, bitLength + next.payloadBits);
+		}
+	}
+
+	private record Task(Segment segment, Future<byte[]> result) {
+		//
+	}
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip an input stream using several threads, in the style of pigz. The input
+ * is cut in blocks, each block is deflated by a worker, primed with the last
+ * 32KiB of the previous block, and ends on a sync flush so that the blocks can
+ * be concatenated into a single deflate stream. CRC and size are computed while
+ * reading.
+ *
+ * The output only depends on the block size and the level, not on the number
+ * of threads.
+ */
+public class ParallelGzipCompressingInputStream extends InputStream {
+	public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+	private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+	private final InputStream in;
+	private final ExecutorService executor;
+	private final int blockSize;
+	private final int level;
+	private final int maxInFlight;
+	private final Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+	private final CRC32 crc = new CRC32();
+	private long size;
+	private byte[] dictionary;
+	private boolean eof;
+	private boolean finished;
+	private byte[] current = HEADER;
+	private int pos;
+
+	public ParallelGzipCompressingInputStream(final InputStream in) {
+		this(in, Runtime.getRuntime().availableProcessors(), DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param in        Input stream to compress.
+	 * @param threads   Number of compressing threads.
+	 * @param blockSize Size of uncompressed blocks.
+	 * @param level     Deflate level.
+	 */
+	public ParallelGzipCompressingInputStream(final InputStream in, final int threads, final int blockSize, final int level) {
+		this.in = in;
+		this.blockSize = blockSize;
+		this.level = level;
+		this.maxInFlight = Math.max(1, threads) * 2;
+		this.executor = Executors.newFixedThreadPool(Math.max(1, threads), Thread.ofPlatform().daemon().name("gzip-", 0).factory());
+	}
+
+	@Override
+	public int read() throws IOException {
+		final byte[] b = new byte[1];
+		final int n = read(b, 0, 1);
+		return n == -1 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		while ((current != null) && (pos == current.length)) {
+			current = nextChunk();
+			pos = 0;
+		}
+		if (current == null) {
+			return -1;
+		}
+		final int n = Math.min(len, current.length - pos);
+		System.arraycopy(current, pos, b, off, n);
+		pos += n;
+		return n;
+	}
+
+	private byte[] nextChunk() throws IOException {
+		fill();
+		final Future<byte[]> next = inFlight.poll();
+		if (next != null) {
+			return await(next);
+		}
+		if (finished) {
+			return null;
+		}
+		finished = true;
+		return finalChunk();
+	}
+
+	private void fill() throws IOException {
+		while (!eof && (inFlight.size() < maxInFlight)) {
+			final byte[] block = in.readNBytes(blockSize);
+			if (block.length == 0) {
+				eof = true;
+				return;
+			}
+			crc.update(block);
+			size += block.length;
+			final byte[] dict = dictionary;
+			inFlight.add(executor.submit(() -> deflate(block, dict, level)));
+			dictionary = Arrays.copyOfRange(block, Math.max(0, block.length - DICTIONARY_SIZE), block.length);
+		}
+	}
+
+	private static byte[] deflate(final byte[] block, final byte[] dictionary, final int level) {
+		final Deflater def = new Deflater(level, true);
+		try {
+			if (dictionary != null) {
+				def.setDictionary(dictionary);
+			}
+			def.setInput(block);
+			final ByteArrayOutputStream out = new ByteArrayOutputStream(block.length / 2);
+			final byte[] buf = new byte[16 * 1024];
+			int n;
+			do {
+				n = def.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+				out.write(buf, 0, n);
+			} while (n == buf.length);
+			return out.toByteArray();
+		} finally {
+			def.end();
+		}
+	}
+
+	/**
+	 * An empty last deflate block, then the gzip trailer.
+	 */
+	private byte[] finalChunk() {
+		final Deflater def = new Deflater(level, true);
+		final byte[] buf = new byte[64];
+		int n;
+		try {
+			def.finish();
+			n = def.deflate(buf);
+		} finally {
+			def.end();
+		}
+		final int crcValue = (int) crc.getValue();
+		final int sz = (int) size;
+		final byte[] ret = Arrays.copyOf(buf, n + 8);
+		for (int i = 0; i < 4; i++) {
+			ret[n + i] = (byte) (crcValue >> (8 * i));
+			ret[n + 4 + i] = (byte) (sz >> (8 * i));
+		}
+		return ret;
+	}
+
+	private static byte[] await(final Future<byte[]> future) throws IOException {
+		try {
+			return future.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (final ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		executor.shutdownNow();
+		in.close();
+	}
+}
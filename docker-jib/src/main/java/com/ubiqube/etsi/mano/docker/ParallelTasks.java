@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Run independent tasks with a bounded parallelism while keeping the results in
+ * the order of the input list.
+ */
+public final class ParallelTasks {
+
+	private ParallelTasks() {
+		// Nothing.
+	}
+
+	/**
+	 * @param items       Inputs.
+	 * @param parallelism Maximum number of tasks running at the same time.
+	 * @param submitOrder Order in which tasks are started, ie: biggest first.
+	 * @param task        The task to apply.
+	 * @return Results, in the order of {@code items}.
+	 */
+	public static <T, R> List<R> map(final List<T> items, final int parallelism, final Comparator<T> submitOrder, final Function<T, R> task) {
+		return map(items, parallelism, submitOrder, task, ExecutionMode.PLATFORM);
+	}
+
+	/**
+	 * @param mode With {@link ExecutionMode#VIRTUAL}, every task gets its own
+	 *             virtual thread and {@code parallelism} is ignored.
+	 */
+	public static <T, R> List<R> map(final List<T> items, final int parallelism, final Comparator<T> submitOrder, final Function<T, R> task, final ExecutionMode mode) {
+		if ((items.size() <= 1) || ((parallelism <= 1) && (mode == ExecutionMode.PLATFORM))) {
+			return items.stream().map(task).toList();
+		}
+		try (ExecutorService executor = mode.newTaskExecutor(Math.min(parallelism, items.size()))) {
+			final List<Future<R>> futures = new ArrayList<>(items.size());
+			items.forEach(x -> futures.add(null));
+			IntStream.range(0, items.size())
+					.boxed()
+					.sorted(Comparator.comparing(items::get, submitOrder))
+					.forEach(i -> futures.set(i, executor.submit(() -> task.apply(items.get(i)))));
+			try {
+				final List<R> ret = new ArrayList<>(items.size());
+				for (final Future<R> future : futures) {
+					ret.add(future.get());
+				}
+				return ret;
+			} catch (final ExecutionException e) {
+				executor.shutdownNow();
+				if (e.getCause() instanceof final RuntimeException re) {
+					throw re;
+				}
+				throw new DockerApiException(e.getCause());
+			} catch (final InterruptedException e) {
+				executor.shutdownNow();
+				Thread.currentThread().interrupt();
+				throw new DockerApiException(e);
+			}
+		}
+	}
+}
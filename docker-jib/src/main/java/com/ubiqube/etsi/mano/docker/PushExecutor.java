@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors shared by the asynchronous pushes of all services. The platform one
+ * never runs more than {@code mano.docker.push.threads} pushes at once (4 by
+ * default); the remaining jobs wait in the queue. The platform background one
+ * runs the short tasks serving a push, see {@link #background()}.
+ */
+public final class PushExecutor {
+	private static final int THREADS = Integer.getInteger("mano.docker.push.threads", 4);
+	private static final ExecutorService SHARED = create(THREADS, "docker-push-");
+	private static final ExecutorService BACKGROUND = create(Integer.getInteger("mano.docker.background.threads", 8), "docker-background-");
+	private static final ExecutorService VIRTUAL = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("docker-push-v", 1).factory());
+
+	private PushExecutor() {
+		// Nothing.
+	}
+
+	public static ExecutorService shared() {
+		return SHARED;
+	}
+
+	/**
+	 * Platform threads writing streamed request bodies and refreshing connection
+	 * probes. It is apart from {@link #shared()}: a push waiting on its body
+	 * writer cannot starve it.
+	 */
+	public static ExecutorService background() {
+		return BACKGROUND;
+	}
+
+	/**
+	 * Unbounded, one virtual thread per push.
+	 */
+	public static ExecutorService virtual() {
+		return VIRTUAL;
+	}
+
+	static ExecutorService create(final int threads, final String name) {
+		final AtomicInteger count = new AtomicInteger();
+		final ThreadFactory factory = r -> {
+			final Thread t = new Thread(r, name + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), factory);
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+/**
+ * Push metrics, tagged by registry host and artifact type. Meters are no-op
+ * until a {@link MeterRegistry} is bound, ie: by declaring
+ * {@link #shared()} as a bean in a Spring Boot application.
+ * <ul>
+ * <li>{@code mano.docker.push.stage}: timer per stage, ie: {@code auth},
+ * {@code check}, {@code upload}, {@code config}, {@code manifest},
+ * {@code compression}, {@code push}.</li>
+ * <li>{@code mano.docker.push.bytes}: bytes {@code uploaded}, or
+ * {@code skipped} because the blob was already there.</li>
+ * <li>{@code mano.docker.push.failures}: failures per stage.</li>
+ * </ul>
+ */
+public final class PushMetrics implements MeterBinder {
+	private static final PushMetrics SHARED = new PushMetrics();
+
+	private final CompositeMeterRegistry registry = new CompositeMeterRegistry();
+
+	public static PushMetrics shared() {
+		return SHARED;
+	}
+
+	@Override
+	public void bindTo(final MeterRegistry meterRegistry) {
+		registry.add(meterRegistry);
+	}
+
+	/**
+	 * Stop reporting to a registry given to {@link #bindTo(MeterRegistry)}.
+	 */
+	public void unbind(final MeterRegistry meterRegistry) {
+		registry.remove(meterRegistry);
+	}
+
+	public <T> T time(final String stage, final String server, final ArtifactType type, final Supplier<T> task) {
+		final Timer.Sample sample = Timer.start(registry);
+		try {
+			return task.get();
+		} catch (final RuntimeException e) {
+			Counter.builder("mano.docker.push.failures")
+					.tags("stage", stage, "registry", host(server), "type", type.getTag(), "exception", e.getClass().getSimpleName())
+					.register(registry)
+					.increment();
+			throw e;
+		} finally {
+			sample.stop(Timer.builder("mano.docker.push.stage")
+					.tags("stage", stage, "registry", host(server), "type", type.getTag())
+					.register(registry));
+		}
+	}
+
+	public void run(final String stage, final String server, final ArtifactType type, final Runnable task) {
+		time(stage, server, type, () -> {
+			task.run();
+			return null;
+		});
+	}
+
+	public void uploaded(final String server, final ArtifactType type, final long bytes) {
+		bytes("uploaded", server, type, bytes);
+	}
+
+	public void skipped(final String server, final ArtifactType type, final long bytes) {
+		bytes("skipped", server, type, bytes);
+	}
+
+	private void bytes(final String result, final String server, final ArtifactType type, final long bytes) {
+		Counter.builder("mano.docker.push.bytes")
+				.baseUnit("bytes")
+				.tags("result", result, "registry", host(server), "type", type.getTag())
+				.register(registry)
+				.increment(bytes);
+	}
+
+	private static String host(final String server) {
+		return null == server ? "unknown" : RegistrySession.getHost(server);
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.nio.file.Path;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Builder
+@Data
+public class PushOptions {
+
+	/**
+	 * Push OCI layout archives while reading them instead of spooling them to a
+	 * temporary file first. Ignored with a {@link #compression}: recompressed
+	 * layers go through the spooled path.
+	 */
+	private boolean streaming;
+
+	/**
+	 * Number of layers uploaded at the same time.
+	 */
+	@Builder.Default
+	private int parallelism = 1;
+
+	/**
+	 * File keeping the blobs known to be in the registries across restarts. Null
+	 * keeps them in memory only.
+	 */
+	private Path blobIndexFile;
+
+	/**
+	 * Compress layers with this codec before pushing them: OCI layers are
+	 * recompressed, the plain tar layers of a docker save are compressed. Null
+	 * pushes the layers as they are in the archive.
+	 */
+	private LayerCodec compression;
+
+	/**
+	 * Compression level, null for the codec default.
+	 */
+	private Integer compressionLevel;
+
+	/**
+	 * Directory remembering the digest of compressed docker save layers across
+	 * pushes, so they are not compressed again. Null disables it.
+	 */
+	private Path layerCache;
+
+	/**
+	 * Bytes of compressed layers kept in {@link #layerCache}, for registries
+	 * missing them. 0 keeps only the digests.
+	 */
+	private long layerCacheBytes;
+
+	/**
+	 * Upload blobs in chunks of this size, resuming a failed chunk. 0 uploads each
+	 * blob in one request.
+	 */
+	private int chunkSize;
+
+	/**
+	 * Number of times a chunk is resumed before giving up.
+	 */
+	@Builder.Default
+	private int chunkRetries = 5;
+
+	/**
+	 * Threads compressing layers, while others are uploaded. They are shared
+	 * between the layers compressed at the same time: a single gzip layer may
+	 * use all of them.
+	 */
+	@Builder.Default
+	private int compressionThreads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Layers being compressed, waiting or being uploaded, at most. It bounds the
+	 * compressed layers spooled to disk.
+	 */
+	@Builder.Default
+	private int pipelineDepth = 8;
+
+	/**
+	 * Threads running the pushes and the layer transfers.
+	 */
+	@Builder.Default
+	private ExecutionMode executionMode = ExecutionMode.PLATFORM;
+}
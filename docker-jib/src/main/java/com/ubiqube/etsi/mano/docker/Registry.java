@@ -16,22 +16,34 @@
  */
 package com.ubiqube.etsi.mano.docker;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
-import org.apache.commons.compress.utils.CountingInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.cloud.tools.jib.api.Credential;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.cloud.tools.jib.api.DescriptorDigest;
 import com.google.cloud.tools.jib.api.RegistryException;
 import com.google.cloud.tools.jib.blob.Blob;
@@ -40,80 +52,242 @@ import com.google.cloud.tools.jib.blob.Blobs;
 import com.google.cloud.tools.jib.builder.ProgressEventDispatcher;
 import com.google.cloud.tools.jib.event.EventHandlers;
 import com.google.cloud.tools.jib.event.progress.ThrottledAccumulatingConsumer;
+import com.google.cloud.tools.jib.http.Authorization;
 import com.google.cloud.tools.jib.http.FailoverHttpClient;
+import com.google.cloud.tools.jib.http.Request;
 import com.google.cloud.tools.jib.http.Response;
-import com.google.cloud.tools.jib.image.json.BuildableManifestTemplate;
+import com.google.cloud.tools.jib.http.ResponseException;
 import com.google.cloud.tools.jib.image.json.ManifestTemplate;
 import com.google.cloud.tools.jib.registry.ManifestAndDigest;
 import com.google.cloud.tools.jib.registry.RegistryClient;
-import com.google.cloud.tools.jib.registry.RegistryClient.Factory;
 
 public class Registry {
 	private static final Logger LOG = LoggerFactory.getLogger(Registry.class);
+	/** Maximum number of concurrent existence checks. */
+	private static final int MAX_CHECKS = 16;
+	private static final Pattern NEXT_LINK = Pattern.compile("<([^>]+)>\\s*;\\s*rel=\"?next\"?");
+	private static final ObjectMapper MAPPER = new ObjectMapper();
 	private final EventHandlers evh;
-	private final RegistryClient client;
+	private final RegistrySessions sessions;
+	private final RegistrySession session;
+	private final BlobLocationIndex locations;
+	private final PushOptions options;
+	private final ArtifactType type;
+	private final PushMetrics metrics = PushMetrics.shared();
 	private final FailoverHttpClient fhc;
 	private final RegistryInformations reg;
 	private final String imageName;
+	/** Blobs said present by the location index, without asking the registry. */
+	private final Set<DescriptorDigest> trusted = ConcurrentHashMap.newKeySet();
 
 	public Registry(final RegistryInformations registry, final String imageName) {
-		this.imageName = imageName;
-		this.reg = registry;
-		this.evh = EventHandlers.builder().build();
-		this.fhc = new FailoverHttpClient(true, true, evh::dispatch);
-		final String host = getHost(registry.getServer());
-		final Factory factory = RegistryClient.factory(evh, host, imageName, fhc);
-		final Credential cred = Credential.from(registry.getUsername(), registry.getPassword());
-		factory.setCredential(cred);
-		this.client = factory.newRegistryClient();
-		try {
-			client.doPushBearerAuth();
-		} catch (IOException | RegistryException e) {
-			throw new DockerApiException(e);
-		}
+		this(RegistrySessions.shared(), BlobLocationIndex.shared(), registry, imageName);
 	}
 
-	private static String getHost(final String server) {
-		final URI url = URI.create(server);
-		return url.getHost();
+	public Registry(final RegistrySessions sessions, final BlobLocationIndex locations, final RegistryInformations registry, final String imageName) {
+		this(sessions, locations, registry, imageName, PushOptions.builder().build());
+	}
+
+	public Registry(final RegistrySessions sessions, final BlobLocationIndex locations, final RegistryInformations registry, final String imageName, final PushOptions options) {
+		this(sessions, locations, registry, imageName, options, ArtifactType.DOCKER);
+	}
+
+	public Registry(final RegistrySessions sessions, final BlobLocationIndex locations, final RegistryInformations registry, final String imageName, final PushOptions options, final ArtifactType type) {
+		this.imageName = imageName;
+		this.options = options;
+		this.type = type;
+		this.reg = registry;
+		this.sessions = sessions;
+		this.locations = locations;
+		this.session = sessions.get(registry, imageName);
+		this.evh = session.getEventHandlers();
+		this.fhc = session.getHttpClient();
+		// Authenticate now, it is a no-op when the session is fresh.
+		metrics.time("auth", registry.getServer(), type, session::getClient);
 	}
 
 	public static Registry of(final RegistryInformations registry, final String imageName) {
 		return new Registry(registry, imageName);
 	}
 
+	public static Registry of(final RegistryInformations registry, final String imageName, final PushOptions options) {
+		return of(registry, imageName, options, ArtifactType.DOCKER);
+	}
+
+	public static Registry of(final RegistryInformations registry, final String imageName, final PushOptions options, final ArtifactType type) {
+		final BlobLocationIndex locations = Optional.ofNullable(options.getBlobIndexFile())
+				.map(BlobLocationIndex::persistent)
+				.orElseGet(BlobLocationIndex::shared);
+		return new Registry(RegistrySessions.shared(), locations, registry, imageName, options, type);
+	}
+
+	/**
+	 * Time a stage of the push, tagged with this registry and artifact type.
+	 */
+	public <T> T timed(final String stage, final Supplier<T> task) {
+		return metrics.time(stage, reg.getServer(), type, task);
+	}
+
+	/**
+	 * Run a push, timed. When the registry refuses the manifest after blobs
+	 * were trusted from the location index, the index was stale, ie: the
+	 * blobs were garbage collected. They are forgotten and the push is run
+	 * once more.
+	 *
+	 * @param copy Must be repeatable, ie: reading a file.
+	 */
+	public void push(final Runnable copy) {
+		timed("push", () -> {
+			try {
+				copy.run();
+			} catch (final StaleLocationException e) {
+				LOG.info("Pushing {} again: {}", imageName, e.getMessage());
+				copy.run();
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Save what was learned about the registry content, when the index is
+	 * persistent.
+	 */
+	public void flush() {
+		locations.save();
+	}
+
 	public long pushBlob(final InputStream blobFile, final DescriptorDigest descriptorDigest) {
-		Optional<BlobDescriptor> res;
-		try {
-			res = client.checkBlob(descriptorDigest);
-		} catch (IOException | RegistryException e) {
-			throw new DockerApiException(e);
-		}
+		final Optional<BlobDescriptor> res = checkBlob(descriptorDigest);
 		if (res.isPresent()) {
 			LOG.debug("Skipping layer : {}", descriptorDigest.getHash());
+			metrics.skipped(reg.getServer(), type, res.get().getSize());
 			return res.get().getSize();
 		}
-		return pushBlob2(blobFile, descriptorDigest);
+		return uploadBlob(blobFile, descriptorDigest);
+	}
+
+	/**
+	 * Check all blobs concurrently, before any upload.
+	 *
+	 * @param digests Blobs to check.
+	 * @return The blobs to upload.
+	 */
+	public BlobPlan checkBlobs(final Collection<DescriptorDigest> digests) {
+		final List<DescriptorDigest> distinct = digests.stream().distinct().toList();
+		final List<Optional<BlobDescriptor>> res = ParallelTasks.map(distinct, Math.min(MAX_CHECKS, distinct.size()), (a, b) -> 0, this::checkBlob, options.getExecutionMode());
+		final Map<DescriptorDigest, Long> existing = new HashMap<>();
+		final List<DescriptorDigest> missing = new ArrayList<>();
+		for (int i = 0; i < distinct.size(); i++) {
+			final DescriptorDigest digest = distinct.get(i);
+			res.get(i).ifPresentOrElse(x -> existing.put(digest, x.getSize()), () -> missing.add(digest));
+		}
+		LOG.debug("{} blob(s) present, {} to upload.", existing.size(), missing.size());
+		metrics.skipped(reg.getServer(), type, existing.values().stream().mapToLong(Long::longValue).sum());
+		return new BlobPlan(existing, missing);
+	}
+
+	private Optional<BlobDescriptor> checkBlob(final DescriptorDigest descriptorDigest) {
+		final Optional<Long> known = locations.getSize(reg.getServer(), imageName, descriptorDigest);
+		if (known.isPresent()) {
+			trusted.add(descriptorDigest);
+			return Optional.of(new BlobDescriptor(known.get(), descriptorDigest));
+		}
+		return permitted("check", () -> {
+			try {
+				final Optional<BlobDescriptor> res = session.getClient().checkBlob(descriptorDigest);
+				res.ifPresent(x -> locations.record(reg.getServer(), imageName, descriptorDigest, x.getSize()));
+				return res;
+			} catch (IOException | RegistryException e) {
+				throw new DockerApiException(e);
+			}
+		});
+	}
+
+	/**
+	 * Upload a blob without checking if it's already present. When another
+	 * repository of this registry is known to hold it, the blob is mounted
+	 * instead; Jib falls back to an upload if the mount is refused.
+	 */
+	public long uploadBlob(final InputStream is, final DescriptorDigest descriptorDigest) {
+		if (options.getChunkSize() > 0) {
+			return permitted("upload", () -> uploadChunked(is, descriptorDigest));
+		}
+		final CountingStreams.Input cis = new CountingStreams.Input(is);
+		return permitted("upload", () -> upload(Blobs.from(cis), descriptorDigest, cis::getCount));
+	}
+
+	/**
+	 * Upload a file region, without checking if it's already present.
+	 */
+	public long uploadBlob(final FileRegionBlob region, final DescriptorDigest descriptorDigest) {
+		if (options.getChunkSize() > 0) {
+			return permitted("upload", () -> {
+				try (InputStream is = region.openStream()) {
+					return uploadChunked(is, descriptorDigest);
+				} catch (final IOException e) {
+					throw new DockerApiException(e);
+				}
+			});
+		}
+		return permitted("upload", () -> upload(region, descriptorDigest, region::getLength));
+	}
+
+	/**
+	 * With virtual threads, the task executors are unbounded: the concurrency is
+	 * bounded by the registry permits.
+	 */
+	private <T> T permitted(final String stage, final Supplier<T> task) {
+		if (options.getExecutionMode() == ExecutionMode.VIRTUAL) {
+			return RegistryPermits.shared().call(reg.getServer(), () -> timed(stage, task));
+		}
+		return timed(stage, task);
+	}
+
+	private long uploadChunked(final InputStream is, final DescriptorDigest descriptorDigest) {
+		final Optional<BlobLocationIndex.Source> source = locations.find(reg.getServer(), imageName, descriptorDigest);
+		final RegistrySession uploadSession = source.map(x -> sessions.get(reg, imageName, x.repository())).orElse(session);
+		final ChunkedBlobUpload upload = new ChunkedBlobUpload(uploadSession, imageName, options.getChunkSize(), options.getChunkRetries());
+		final OptionalLong uploaded = upload.upload(is, descriptorDigest, source.map(BlobLocationIndex.Source::repository).orElse(null));
+		final long size = uploaded.orElseGet(() -> source.get().size());
+		if (uploaded.isPresent()) {
+			metrics.uploaded(reg.getServer(), type, size);
+		} else {
+			metrics.skipped(reg.getServer(), type, size);
+		}
+		locations.record(reg.getServer(), imageName, descriptorDigest, size);
+		return size;
 	}
 
-	private long pushBlob2(final InputStream is, final DescriptorDigest descriptorDigest) {
+	private long upload(final Blob blob, final DescriptorDigest descriptorDigest, final LongSupplier uploadedSize) {
+		final Optional<BlobLocationIndex.Source> source = locations.find(reg.getServer(), imageName, descriptorDigest);
+		final RegistryClient client = source.map(x -> sessions.get(reg, imageName, x.repository())).orElse(session).getClient();
 		try (final ProgressEventDispatcher progressEventDispatcher = ProgressEventDispatcher.newRoot(evh, "descr", 0);
 				final ThrottledAccumulatingConsumer throttledProgressReporter = new ThrottledAccumulatingConsumer(progressEventDispatcher::dispatchProgress);) {
-			final CountingInputStream cis = new CountingInputStream(is);
-			final Blob blob = Blobs.from(cis);
-			client.pushBlob(descriptorDigest, blob, null, throttledProgressReporter);
-			return cis.getBytesRead();
+			final boolean mounted = client.pushBlob(descriptorDigest, blob, source.map(BlobLocationIndex.Source::repository).orElse(null), throttledProgressReporter);
+			final long size = mounted ? source.get().size() : uploadedSize.getAsLong();
+			if (mounted) {
+				LOG.debug("Mounted {} from {}", descriptorDigest.getHash(), source.get().repository());
+				metrics.skipped(reg.getServer(), type, size);
+			} else {
+				metrics.uploaded(reg.getServer(), type, size);
+			}
+			locations.record(reg.getServer(), imageName, descriptorDigest, size);
+			return size;
 		} catch (IOException | RegistryException e) {
 			throw new DockerApiException(e);
 		}
 	}
 
 	public DescriptorDigest pushConfig(final byte[] configRaw) {
+		return timed("config", () -> doPushConfig(configRaw));
+	}
+
+	private DescriptorDigest doPushConfig(final byte[] configRaw) {
 		try (final ProgressEventDispatcher progressEventDispatcher = ProgressEventDispatcher.newRoot(evh, "config", 0);
 				final ThrottledAccumulatingConsumer throttledProgressReporter = new ThrottledAccumulatingConsumer(progressEventDispatcher::dispatchProgress)) {
 			final Blob configBlob = Blobs.from(new String(configRaw));
 			final DescriptorDigest manifestDigest = DescriptorDigest.fromHash(buildSha256(configRaw));
-			client.pushBlob(manifestDigest, configBlob, null, throttledProgressReporter);
+			session.getClient().pushBlob(manifestDigest, configBlob, null, throttledProgressReporter);
 			return manifestDigest;
 		} catch (DigestException | NoSuchAlgorithmException | IOException | RegistryException e) {
 			throw new DockerApiException(e);
@@ -122,7 +296,7 @@ public class Registry {
 
 	public ManifestAndDigest<ManifestTemplate> manifestPuller(final String tag) {
 		try {
-			return client.pullManifest(tag);
+			return session.getClient().pullManifest(tag);
 		} catch (IOException | RegistryException e) {
 			LOG.info("Unable to pull manifest {}:{}", this.imageName, tag);
 			LOG.trace("", e);
@@ -130,7 +304,7 @@ public class Registry {
 		return null;
 	}
 
-	private static String buildSha256(final byte[] configRaw) throws NoSuchAlgorithmException {
+	static String buildSha256(final byte[] configRaw) throws NoSuchAlgorithmException {
 		final MessageDigest digest = MessageDigest.getInstance("SHA-256");
 		final byte[] hash = digest.digest(configRaw);
 		return IntStream.range(0, hash.length)
@@ -140,40 +314,157 @@ public class Registry {
 				.toLowerCase();
 	}
 
-	public DescriptorDigest pushManifest(final BuildableManifestTemplate mft, final String tag) {
+	/**
+	 * @param tag A tag, or a digest for the manifests of an image index.
+	 */
+	public DescriptorDigest pushManifest(final ManifestTemplate mft, final String tag) {
+		return timed("manifest", () -> doPushManifest(mft, tag));
+	}
+
+	private DescriptorDigest doPushManifest(final ManifestTemplate mft, final String tag) {
 		try {
-			return client.pushManifest(mft, tag);
+			return session.getClient().pushManifest(mft, tag);
 		} catch (final RegistryException e) {
 			LOG.trace("Could not upload " + tag, e);
-			LOG.warn("Could not upload docker image {}", tag);
-			return null;
+			if (forgetTrusted()) {
+				throw new StaleLocationException("manifest " + tag + " refused after trusting the blob location index.");
+			}
+			throw new DockerApiException("Could not upload manifest " + imageName + ":" + tag, e);
 		} catch (final IOException e) {
 			throw new DockerApiException(e);
 		}
 	}
 
-	public void deleteManifest(final String name) {
-		Optional<ManifestAndDigest<ManifestTemplate>> res;
+	/**
+	 * @return true if some blobs were trusted from the location index.
+	 */
+	private boolean forgetTrusted() {
+		final List<DescriptorDigest> digests = List.copyOf(trusted);
+		digests.forEach(x -> {
+			trusted.remove(x);
+			locations.forget(reg.getServer(), imageName, x);
+		});
+		return !digests.isEmpty();
+	}
+
+	/**
+	 * Pull a blob, ie: an image configuration.
+	 */
+	public byte[] pullBlob(final DescriptorDigest digest) {
 		try {
-			res = client.checkManifest(name);
-		} catch (IOException | RegistryException e) {
+			final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			session.getClient().pullBlob(digest, x -> {
+				//
+			}, x -> {
+				//
+			}).writeTo(baos);
+			return baos.toByteArray();
+		} catch (final IOException e) {
 			throw new DockerApiException(e);
 		}
-		if (res.isEmpty()) {
-			return;
-		}
-		URL url;
-		final String apiRouteBase = "https://" + reg.getServer() + "/v2/";
+	}
+
+	/**
+	 * @return All tags of the repository, following the {@code Link} pages.
+	 */
+	public List<String> listTags() {
+		final List<String> tags = new ArrayList<>();
 		try {
-			url = new URL(apiRouteBase + imageName + "/manifests/" + res.get().getDigest().getHash());
-			final Response cr = fhc.call("DELETE", url, null);
-			if (cr.getStatusCode() >= 400) {
-				throw new DockerApiException("Bad error Code :" + cr.getStatusCode());
+			URL url = session.getUrl("/tags/list");
+			while (null != url) {
+				try (Response res = call("GET", url, "pull")) {
+					MAPPER.readTree(res.getBody()).path("tags").forEach(x -> tags.add(x.asText()));
+					url = next(url, res);
+				}
 			}
 		} catch (final IOException e) {
 			throw new DockerApiException(e);
 		}
+		return tags;
+	}
 
+	private static URL next(final URL base, final Response res) throws IOException {
+		for (final String link : res.getHeader("Link")) {
+			final Matcher m = NEXT_LINK.matcher(link);
+			if (m.find()) {
+				try {
+					return base.toURI().resolve(m.group(1)).toURL();
+				} catch (final URISyntaxException e) {
+					throw new IOException(e);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Delete the manifest a tag points to; the other tags of the same manifest are
+	 * gone too.
+	 */
+	public void deleteManifest(final String name) {
+		final Optional<ManifestAndDigest<ManifestTemplate>> res;
+		try {
+			res = session.getClient().checkManifest(name);
+		} catch (IOException | RegistryException e) {
+			throw new DockerApiException(e);
+		}
+		res.ifPresent(x -> deleteDigest(x.getDigest()));
+	}
+
+	/**
+	 * @return false when the manifest was already gone.
+	 */
+	public boolean deleteDigest(final DescriptorDigest digest) {
+		return timed("delete", () -> {
+			try (Response res = call("DELETE", session.getUrl("/manifests/" + digest), "delete")) {
+				LOG.debug("Deleted {}@{}: {}", imageName, digest, res.getStatusCode());
+				// The garbage collector may now remove the blobs of the repository.
+				locations.forgetRepository(reg.getServer(), imageName);
+				return true;
+			} catch (final ResponseException e) {
+				if (e.getStatusCode() == 404) {
+					return false;
+				}
+				throw new DockerApiException("Unable to delete " + imageName + "@" + digest + ": " + e.getStatusCode(), e);
+			} catch (final IOException e) {
+				throw new DockerApiException(e);
+			}
+		});
 	}
 
+	/**
+	 * Call with the session authorization for an action. On a 401, the challenge
+	 * is answered, it may ask a scope the push token does not have.
+	 *
+	 * @param action Action on the repository, ie: {@code delete}.
+	 */
+	private Response call(final String method, final URL url, final String action) throws IOException {
+		final Optional<Authorization> authorization = session.getAuthorization(action);
+		try {
+			return fhc.call(method, url, request(authorization));
+		} catch (final ResponseException e) {
+			final String challenge = e.getHeaders().getAuthenticate();
+			if ((e.getStatusCode() != 401) || (null == challenge)) {
+				throw e;
+			}
+			return fhc.call(method, url, request(session.authorize(action, challenge, authorization)));
+		}
+	}
+
+	private static Request request(final Optional<Authorization> authorization) {
+		final Request.Builder builder = Request.builder();
+		authorization.ifPresent(builder::setAuthorization);
+		return builder.build();
+	}
+
+	/**
+	 * The location index said a blob was there, the registry disagrees.
+	 */
+	private static final class StaleLocationException extends DockerException {
+		private static final long serialVersionUID = 1L;
+
+		StaleLocationException(final String message) {
+			super(message);
+		}
+	}
 }
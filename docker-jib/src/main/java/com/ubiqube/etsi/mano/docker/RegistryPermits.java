@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Caps the number of concurrent transfers per registry server, shared by all
+ * the services. The cap is {@code mano.docker.registry.concurrency}, 16 by
+ * default.
+ */
+public final class RegistryPermits {
+	private static final RegistryPermits SHARED = new RegistryPermits(Integer.getInteger("mano.docker.registry.concurrency", 16));
+
+	private final int permits;
+	private final Map<String, Semaphore> semaphores = new ConcurrentHashMap<>();
+
+	public RegistryPermits(final int permits) {
+		this.permits = permits;
+	}
+
+	public static RegistryPermits shared() {
+		return SHARED;
+	}
+
+	public int getPermits() {
+		return permits;
+	}
+
+	/**
+	 * @return The number of tasks waiting for a permit of {@code server}.
+	 */
+	int getQueueLength(final String server) {
+		return semaphores.computeIfAbsent(server, x -> new Semaphore(permits, true)).getQueueLength();
+	}
+
+	public <T> T call(final String server, final Supplier<T> task) {
+		final Semaphore semaphore = semaphores.computeIfAbsent(server, x -> new Semaphore(permits, true));
+		try {
+			semaphore.acquire();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DockerApiException(e);
+		}
+		try {
+			return task.get();
+		} finally {
+			semaphore.release();
+		}
+	}
+
+	public void run(final String server, final Runnable task) {
+		call(server, () -> {
+			task.run();
+			return null;
+		});
+	}
+}
@@ -0,0 +1,245 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.cloud.tools.jib.api.Credential;
+import com.google.cloud.tools.jib.api.RegistryException;
+import com.google.cloud.tools.jib.event.EventHandlers;
+import com.google.cloud.tools.jib.http.Authorization;
+import com.google.cloud.tools.jib.http.FailoverHttpClient;
+import com.google.cloud.tools.jib.registry.RegistryAuthorizations;
+import com.google.cloud.tools.jib.registry.RegistryClient;
+import com.google.cloud.tools.jib.registry.RegistryClient.Factory;
+
+/**
+ * An authenticated {@link RegistryClient} for one repository. The client is
+ * shared between threads, and authenticated again once {@code refreshAfter} is
+ * elapsed; a token expiring sooner is still renewed by Jib on a 401.
+ */
+public class RegistrySession {
+	private static final Logger LOG = LoggerFactory.getLogger(RegistrySession.class);
+
+	private final EventHandlers evh;
+	private final FailoverHttpClient fhc;
+	private final RegistryClient client;
+	private final String host;
+	private final String imageName;
+	private final String sourceImage;
+	private final Credential credential;
+	private final long refreshAfterNanos;
+	private final Lock lock = new ReentrantLock();
+	private volatile long authenticatedAt;
+	private volatile boolean authenticated;
+	/** Authorization for requests made outside of the client, null if anonymous. */
+	private volatile Authorization authorization;
+	private volatile long authorizedAt;
+	private volatile boolean authorized;
+	/** Challenge of the registry, asked once; empty if anonymous. */
+	private volatile Optional<String> challenge;
+	private volatile long lastUsed = System.nanoTime();
+	/** Authorizations for actions the push one does not cover, by action. */
+	private final Map<String, Scoped> scopedAuthorizations = new ConcurrentHashMap<>();
+
+	public RegistrySession(final RegistryInformations registry, final String imageName, final Duration refreshAfter) {
+		this(registry, imageName, null, refreshAfter);
+	}
+
+	/**
+	 * @param sourceImage A repository to mount blobs from, the token will also
+	 *                    grant pull on it. Can be null.
+	 */
+	public RegistrySession(final RegistryInformations registry, final String imageName, final String sourceImage, final Duration refreshAfter) {
+		this.evh = EventHandlers.builder().build();
+		this.fhc = new FailoverHttpClient(true, true, evh::dispatch);
+		this.host = getHost(registry.getServer());
+		this.imageName = imageName;
+		this.sourceImage = sourceImage;
+		this.credential = null == registry.getUsername() ? null : Credential.from(registry.getUsername(), registry.getPassword());
+		final Factory factory = RegistryClient.factory(evh, host, imageName, sourceImage, fhc);
+		if (null != credential) {
+			factory.setCredential(credential);
+		}
+		this.client = factory.newRegistryClient();
+		this.refreshAfterNanos = refreshAfter.toNanos();
+	}
+
+	/**
+	 * Keep the port, jib is expecting {@code host[:port]}.
+	 */
+	static String getHost(final String server) {
+		final URI url = URI.create(server);
+		if (null == url.getHost()) {
+			return server;
+		}
+		return url.getPort() == -1 ? url.getHost() : url.getHost() + ":" + url.getPort();
+	}
+
+	public RegistryClient getClient() {
+		final long now = System.nanoTime();
+		lastUsed = now;
+		if (authenticated && ((now - authenticatedAt) < refreshAfterNanos)) {
+			return client;
+		}
+		lock.lock();
+		try {
+			if (!authenticated || ((System.nanoTime() - authenticatedAt) >= refreshAfterNanos)) {
+				authenticate();
+			}
+		} finally {
+			lock.unlock();
+		}
+		return client;
+	}
+
+	private void authenticate() {
+		try {
+			if (!client.doPushBearerAuth()) {
+				client.configureBasicAuth();
+			}
+		} catch (IOException | RegistryException e) {
+			authenticated = false;
+			throw new DockerApiException(e);
+		}
+		LOG.debug("Authenticated against registry.");
+		authenticatedAt = System.nanoTime();
+		authenticated = true;
+	}
+
+	/**
+	 * @return The push authorization, empty for an anonymous registry.
+	 */
+	public Optional<Authorization> getAuthorization() {
+		lastUsed = System.nanoTime();
+		if (!authorized || ((System.nanoTime() - authorizedAt) >= refreshAfterNanos)) {
+			lock.lock();
+			try {
+				if (!authorized || ((System.nanoTime() - authorizedAt) >= refreshAfterNanos)) {
+					if (null == challenge) {
+						challenge = RegistryAuthorizations.challenge(fhc, client, host);
+					}
+					authorization = RegistryAuthorizations.forPush(fhc, client, challenge, host, imageName, sourceImage, credential).orElse(null);
+					authorizedAt = System.nanoTime();
+					authorized = true;
+				}
+			} catch (IOException | RegistryException e) {
+				throw new DockerApiException(e);
+			} finally {
+				lock.unlock();
+			}
+		}
+		return Optional.ofNullable(authorization);
+	}
+
+	/**
+	 * @param action Action on this repository, ie: {@code delete}.
+	 * @return The authorization obtained for this action after a challenge, or
+	 *         the push authorization until then.
+	 */
+	public Optional<Authorization> getAuthorization(final String action) {
+		final Scoped scoped = scopedAuthorizations.get(action);
+		if ((null != scoped) && ((System.nanoTime() - scoped.at()) < refreshAfterNanos)) {
+			lastUsed = System.nanoTime();
+			return scoped.authorization();
+		}
+		return getAuthorization();
+	}
+
+	/**
+	 * Answer the challenge of a 401 for an action the push authorization does not
+	 * cover. The answer is kept for the action, the push authorization is left
+	 * alone for the pushes sharing this session.
+	 *
+	 * @param action    Action on this repository, ie: {@code delete}.
+	 * @param challenge The {@code WWW-Authenticate} header.
+	 * @param refused   The authorization the registry refused.
+	 */
+	public Optional<Authorization> authorize(final String action, final String challenge, final Optional<Authorization> refused) {
+		lastUsed = System.nanoTime();
+		lock.lock();
+		try {
+			final Scoped scoped = scopedAuthorizations.get(action);
+			if ((null != scoped) && !scoped.authorization().equals(refused) && ((System.nanoTime() - scoped.at()) < refreshAfterNanos)) {
+				return scoped.authorization();
+			}
+			final Optional<Authorization> res = RegistryAuthorizations.forChallenge(fhc, client, challenge, "repository:" + imageName + ":" + action, credential);
+			scopedAuthorizations.put(action, new Scoped(res, System.nanoTime()));
+			return res;
+		} catch (final IOException e) {
+			throw new DockerApiException(e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @param path Path under the repository, ie: {@code /tags/list}.
+	 * @return The URL of a repository endpoint. Like for the
+	 *         {@link RegistryClient}, it is https: the HTTP client fails over to
+	 *         http for an insecure registry.
+	 */
+	public URL getUrl(final String path) {
+		try {
+			return URI.create("https://" + host + "/v2/" + imageName + path).toURL();
+		} catch (final MalformedURLException e) {
+			throw new DockerApiException(e);
+		}
+	}
+
+	/**
+	 * Ask a new authorization on next use, ie: after a 401.
+	 */
+	public void invalidateAuthorization() {
+		authorized = false;
+	}
+
+	/**
+	 * @return {@code host[:port]} of the registry.
+	 */
+	public String getHost() {
+		return host;
+	}
+
+	public EventHandlers getEventHandlers() {
+		return evh;
+	}
+
+	public FailoverHttpClient getHttpClient() {
+		return fhc;
+	}
+
+	boolean isIdle(final Duration idle) {
+		return (System.nanoTime() - lastUsed) > idle.toNanos();
+	}
+
+	private record Scoped(Optional<Authorization> authorization, long at) {
+		//
+	}
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of {@link RegistrySession}, keyed by server, credentials and
+ * repository.
+ */
+public class RegistrySessions {
+	/** Bearer tokens are commonly issued for 5 minutes. */
+	public static final Duration DEFAULT_REFRESH = Duration.ofMinutes(4);
+	private static final Duration IDLE = Duration.ofMinutes(15);
+	private static final RegistrySessions SHARED = new RegistrySessions(DEFAULT_REFRESH);
+
+	private final Map<Key, RegistrySession> sessions = new ConcurrentHashMap<>();
+	private final Duration refreshAfter;
+
+	public RegistrySessions(final Duration refreshAfter) {
+		this.refreshAfter = refreshAfter;
+	}
+
+	public static RegistrySessions shared() {
+		return SHARED;
+	}
+
+	public RegistrySession get(final RegistryInformations registry, final String imageName) {
+		return get(registry, imageName, null);
+	}
+
+	/**
+	 * @param sourceImage Repository blobs are mounted from, or null.
+	 */
+	public RegistrySession get(final RegistryInformations registry, final String imageName, final String sourceImage) {
+		sessions.values().removeIf(x -> x.isIdle(IDLE));
+		final Key key = new Key(registry.getServer(), CredentialFingerprint.of(registry.getUsername(), registry.getPassword()), imageName, sourceImage);
+		return sessions.computeIfAbsent(key, k -> new RegistrySession(registry, imageName, sourceImage, refreshAfter));
+	}
+
+	public void invalidate(final RegistryInformations registry) {
+		sessions.keySet().removeIf(x -> x.server().equals(registry.getServer()));
+	}
+
+	public void clear() {
+		sessions.clear();
+	}
+
+	private record Key(String server, String credentials, String imageName, String sourceImage) {
+		//
+	}
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.tools.jib.api.DescriptorDigest;
+import com.google.cloud.tools.jib.image.json.BuildableManifestTemplate;
+import com.google.cloud.tools.jib.image.json.ManifestTemplate;
+import com.google.cloud.tools.jib.registry.ManifestAndDigest;
+
+/**
+ * Delete the tags of a repository a {@link RetentionPolicy} lets go. A manifest
+ * is deleted by digest, so a manifest still behind a kept tag is never deleted.
+ * Images whose age is unknown, ie: an image index, count as the most recent.
+ */
+public class RetentionEngine {
+	private static final Logger LOG = LoggerFactory.getLogger(RetentionEngine.class);
+
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final Registry registry;
+
+	public RetentionEngine(final Registry registry) {
+		this.registry = registry;
+	}
+
+	public RetentionReport apply(final RetentionPolicy policy) {
+		final List<String> tags = registry.listTags();
+		final List<TagImage> images = ParallelTasks.map(tags, policy.getParallelism(), (a, b) -> 0, this::describe);
+		final Set<DescriptorDigest> recent = recent(images, policy.getKeepLast());
+		final Instant limit = Optional.ofNullable(policy.getOlderThan()).map(x -> Instant.now().minus(x)).orElse(null);
+		final List<String> kept = new ArrayList<>();
+		final Set<DescriptorDigest> keptDigests = new HashSet<>();
+		final List<TagImage> candidates = new ArrayList<>();
+		for (final TagImage image : images) {
+			if (isKept(image, policy, recent, limit)) {
+				kept.add(image.tag());
+				keptDigests.add(image.digest());
+			} else {
+				candidates.add(image);
+			}
+		}
+		final List<String> skipped = new ArrayList<>();
+		final Map<DescriptorDigest, List<String>> toDelete = new LinkedHashMap<>();
+		for (final TagImage image : candidates) {
+			if (keptDigests.contains(image.digest())) {
+				skipped.add(image.tag());
+			} else {
+				toDelete.computeIfAbsent(image.digest(), k -> new ArrayList<>()).add(image.tag());
+			}
+		}
+		final List<String> deleted = new ArrayList<>();
+		final Map<String, String> failed = new LinkedHashMap<>();
+		if (policy.isDryRun()) {
+			toDelete.values().forEach(deleted::addAll);
+		} else {
+			final List<DescriptorDigest> digests = new ArrayList<>(toDelete.keySet());
+			final List<Optional<String>> errors = ParallelTasks.map(digests, policy.getParallelism(), (a, b) -> 0, this::delete);
+			for (int i = 0; i < digests.size(); i++) {
+				final List<String> digestTags = toDelete.get(digests.get(i));
+				errors.get(i).ifPresentOrElse(x -> digestTags.forEach(t -> failed.put(t, x)), () -> deleted.addAll(digestTags));
+			}
+		}
+		LOG.info("Retention{}: {} kept, {} deleted, {} skipped, {} failed.", policy.isDryRun() ? " (dry run)" : "", kept.size(), deleted.size(), skipped.size(), failed.size());
+		return new RetentionReport(policy.isDryRun(), kept, deleted, skipped, failed);
+	}
+
+	private static boolean isKept(final TagImage image, final RetentionPolicy policy, final Set<DescriptorDigest> recent, @Nullable final Instant limit) {
+		if ((null == policy.getKeepLast()) && (null == policy.getOlderThan()) && (null == policy.getReferenced())) {
+			return true;
+		}
+		if (null == image.digest()) {
+			return true;
+		}
+		if ((null != policy.getReferenced()) && (policy.getReferenced().contains(image.tag()) || policy.getReferenced().contains(image.digest().toString()))) {
+			return true;
+		}
+		if ((null != policy.getKeepLast()) && recent.contains(image.digest())) {
+			return true;
+		}
+		return (null != limit) && ((null == image.created()) || image.created().isAfter(limit));
+	}
+
+	/**
+	 * @return The digests of the {@code keepLast} most recent images.
+	 */
+	private static Set<DescriptorDigest> recent(final List<TagImage> images, @Nullable final Integer keepLast) {
+		if (null == keepLast) {
+			return Set.of();
+		}
+		final Map<DescriptorDigest, Instant> created = new LinkedHashMap<>();
+		images.stream()
+				.filter(x -> null != x.digest())
+				.forEach(x -> created.put(x.digest(), null == x.created() ? Instant.MAX : x.created()));
+		final Set<DescriptorDigest> ret = new HashSet<>();
+		created.entrySet().stream()
+				.sorted(Map.Entry.<DescriptorDigest, Instant>comparingByValue(Comparator.reverseOrder()))
+				.limit(keepLast)
+				.forEach(x -> ret.add(x.getKey()));
+		return ret;
+	}
+
+	private TagImage describe(final String tag) {
+		final ManifestAndDigest<ManifestTemplate> mad = registry.manifestPuller(tag);
+		if (null == mad) {
+			return new TagImage(tag, null, null);
+		}
+		return new TagImage(tag, mad.getDigest(), created(mad.getManifest()));
+	}
+
+	private @Nullable Instant created(final ManifestTemplate manifest) {
+		if (!(manifest instanceof final BuildableManifestTemplate bmt) || (null == bmt.getContainerConfiguration())) {
+			return null;
+		}
+		try {
+			final String created = mapper.readTree(registry.pullBlob(bmt.getContainerConfiguration().getDigest())).path("created").asText(null);
+			return null == created ? null : OffsetDateTime.parse(created).toInstant();
+		} catch (final IOException | DateTimeParseException | DockerApiException e) {
+			LOG.debug("No creation date for {}: {}", bmt.getContainerConfiguration().getDigest(), e.getMessage());
+			return null;
+		}
+	}
+
+	private Optional<String> delete(final DescriptorDigest digest) {
+		try {
+			registry.deleteDigest(digest);
+			return Optional.empty();
+		} catch (final RuntimeException e) {
+			LOG.warn("Unable to delete {}: {}", digest, e.getMessage());
+			return Optional.ofNullable(e.getMessage()).or(() -> Optional.of(e.getClass().getSimpleName()));
+		}
+	}
+
+	/**
+	 * @param digest  Null when the manifest could not be read.
+	 * @param created Null when unknown.
+	 */
+	private record TagImage(String tag, @Nullable DescriptorDigest digest, @Nullable Instant created) {
+		//
+	}
+}
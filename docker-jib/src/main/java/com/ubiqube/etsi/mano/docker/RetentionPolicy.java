@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.time.Duration;
+import java.util.Set;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Which tags of a repository a {@link RetentionEngine} deletes. A tag is
+ * deleted only when every configured rule lets it go; with no rule at all,
+ * nothing is deleted.
+ */
+@Builder
+@Data
+public class RetentionPolicy {
+
+	/**
+	 * Keep the N most recent images, by creation date. Null disables the rule.
+	 */
+	private Integer keepLast;
+
+	/**
+	 * Keep images created less than this ago; images without a creation date are
+	 * kept. Null disables the rule.
+	 */
+	private Duration olderThan;
+
+	/**
+	 * Tags or {@code sha256:} digests in use, ie: by a deployed VNF. They are never
+	 * deleted. Null disables the rule.
+	 */
+	private Set<String> referenced;
+
+	/**
+	 * Number of deletes running at the same time.
+	 */
+	@Builder.Default
+	private int parallelism = 4;
+
+	/**
+	 * Only report what would be deleted.
+	 */
+	private boolean dryRun;
+}
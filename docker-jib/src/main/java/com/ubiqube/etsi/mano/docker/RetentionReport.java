@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of a {@link RetentionEngine} run, by tag.
+ *
+ * @param dryRun  Nothing was deleted, {@code deleted} lists what would be.
+ * @param kept    Tags kept by the policy.
+ * @param deleted Tags deleted.
+ * @param skipped Tags the policy lets go, kept because their manifest is also
+ *                behind a kept tag.
+ * @param failed  Tags that could not be deleted, with the reason.
+ */
+public record RetentionReport(boolean dryRun, List<String> kept, List<String> deleted, List<String> skipped, Map<String, String> failed) {
+	//
+}
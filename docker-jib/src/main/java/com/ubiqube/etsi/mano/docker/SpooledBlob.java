@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.DigestException;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import com.google.cloud.tools.jib.api.DescriptorDigest;
+
+/**
+ * A blob written once to a temporary file, its digest and size computed while
+ * writing.
+ */
+public class SpooledBlob implements Closeable {
+	private final TemporaryFileSentry file;
+	private final DescriptorDigest digest;
+	private final long size;
+
+	public SpooledBlob(final InputStream is) {
+		this(is, x -> x);
+	}
+
+	/**
+	 * @param is      Input.
+	 * @param encoder Applied to the input before spooling it, ie: a compressor.
+	 */
+	public SpooledBlob(final InputStream is, final Encoder encoder) {
+		this.file = new TemporaryFileSentry(".blob");
+		try {
+			final MessageDigest md = MessageDigest.getInstance("SHA-256");
+			try (OutputStream fos = Files.newOutputStream(file.get());
+					OutputStream dos = new DigestOutputStream(fos, md);
+					OutputStream os = encoder.wrap(dos)) {
+				is.transferTo(os);
+			}
+			this.size = Files.size(file.get());
+			this.digest = DescriptorDigest.fromHash(HexFormat.of().formatHex(md.digest()));
+		} catch (IOException | NoSuchAlgorithmException | DigestException e) {
+			file.close();
+			throw new DockerApiException(e);
+		}
+	}
+
+	public DescriptorDigest getDigest() {
+		return digest;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public InputStream openStream() {
+		try {
+			return Files.newInputStream(file.get());
+		} catch (final IOException e) {
+			throw new DockerApiException(e);
+		}
+	}
+
+	@Override
+	public void close() {
+		file.close();
+	}
+
+	@FunctionalInterface
+	public interface Encoder {
+		OutputStream wrap(OutputStream os) throws IOException;
+	}
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ArchiveApiTest {
+	@TempDir
+	private File tempDir;
+
+	@Test
+	void testIndex() throws IOException {
+		final File chart = new File("src/test/resources/Chart.yaml");
+		final File file = new File(tempDir, "test.tar");
+		OciHelmTarFileTest.createTarFile(file,
+				new TarArchiveEntry(chart, "b/templates/Chart.yaml"),
+				new TarArchiveEntry(chart, "a/Chart.yaml"),
+				new TarArchiveEntry(chart, "a/values.yaml"),
+				new TarArchiveEntry(chart, "oci-layout"));
+		try (TarFile tf = new TarFile(file)) {
+			final ArchiveApi aa = new ArchiveApi(tf);
+			assertEquals(List.of("b/templates/Chart.yaml", "a/Chart.yaml"), aa.search("Chart.yaml"));
+			assertEquals(List.of("b/templates/Chart.yaml"), aa.search("templates/Chart.yaml"));
+			assertEquals(List.of(), aa.search("Chart.yml"));
+			assertTrue(aa.contains("oci-layout"));
+			assertFalse(aa.contains("index.json"));
+			assertEquals(chart.length(), aa.getSize("a/values.yaml"));
+			assertEquals(chart.length(), aa.getContent("a/Chart.yaml").length);
+			assertThrows(DockerException.class, () -> aa.getInputStream("missing"));
+			assertTrue(aa.getRegion("a/values.yaml", null).isEmpty());
+		}
+		try (TarFile tf = new TarFile(file)) {
+			final ArchiveApi aa = new ArchiveApi(tf, file.toPath());
+			final FileRegionBlob region = aa.getRegion("a/values.yaml", null).orElseThrow();
+			final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			region.writeTo(baos);
+			assertArrayEquals(aa.getContent("a/values.yaml"), baos.toByteArray());
+			assertTrue(aa.getRegion("missing", null).isEmpty());
+		}
+	}
+
+	@Test
+	void duplicateNameFirstWins() throws IOException {
+		final File chart = new File("src/test/resources/Chart.yaml");
+		final File logback = new File("src/test/resources/logback.xml");
+		final File file = new File(tempDir, "duplicate.tar");
+		OciHelmTarFileTest.createTarFile(file,
+				new TarArchiveEntry(chart, "a/Chart.yaml"),
+				new TarArchiveEntry(logback, "a/Chart.yaml"));
+		try (TarFile tf = new TarFile(file)) {
+			final ArchiveApi aa = new ArchiveApi(tf);
+			assertEquals(chart.length(), aa.getSize("a/Chart.yaml"));
+			assertArrayEquals(Files.readAllBytes(chart.toPath()), aa.getContent("a/Chart.yaml"));
+			// Every entry is listed, as a scan of the archive does.
+			assertEquals(List.of("a/Chart.yaml", "a/Chart.yaml"), aa.search("Chart.yaml"));
+		}
+	}
+}
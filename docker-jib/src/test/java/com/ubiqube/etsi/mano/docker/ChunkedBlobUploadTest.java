@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.security.DigestException;
+import java.time.Duration;
+import java.util.OptionalLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.cloud.tools.jib.api.DescriptorDigest;
+import com.ubiqube.etsi.mano.docker.OciRegistryStub.Auth;
+
+class ChunkedBlobUploadTest {
+	private static final String REPOSITORY = "mano/chunk";
+	private static final int CHUNK = 256 * 1024;
+
+	private static OptionalLong upload(final OciRegistryStub stub, final byte[] content, final int retries) throws DigestException {
+		final RegistrySession session = new RegistrySession(stub.getRegistryInformations(), REPOSITORY, Duration.ofMinutes(1));
+		final ChunkedBlobUpload upload = new ChunkedBlobUpload(session, REPOSITORY, CHUNK, retries);
+		return upload.upload(new ByteArrayInputStream(content), DescriptorDigest.fromDigest(OciRegistryStub.sha256(content)), null);
+	}
+
+	@Test
+	void chunkResumed() throws DigestException {
+		try (OciRegistryStub stub = new OciRegistryStub().auth(Auth.BEARER, "user", "pass").failUploadAt(300_000)) {
+			final byte[] content = TestImages.layer(700_000, 1);
+			assertEquals(OptionalLong.of(content.length), upload(stub, content, 3));
+			assertTrue(stub.hasBlob(REPOSITORY, OciRegistryStub.sha256(content)));
+			// 3 chunks, the second one resumed.
+			assertEquals(4, stub.count("PATCH upload"));
+			assertEquals(1, stub.count("GET upload"));
+		}
+	}
+
+	@Test
+	void startAndCommitRetried() throws DigestException {
+		try (OciRegistryStub stub = new OciRegistryStub().auth(Auth.BASIC, "user", "pass").failNext("POST upload", 2).failNext("PUT upload", 1)) {
+			final byte[] content = TestImages.layer(300_000, 2);
+			assertEquals(OptionalLong.of(content.length), upload(stub, content, 3));
+			assertTrue(stub.hasBlob(REPOSITORY, OciRegistryStub.sha256(content)));
+			assertEquals(3, stub.count("POST upload"));
+			assertEquals(2, stub.count("PUT upload"));
+		}
+	}
+
+	@Test
+	void retriesBounded() {
+		try (OciRegistryStub stub = new OciRegistryStub().failNext("POST upload", 3)) {
+			final byte[] content = TestImages.layer(10_000, 3);
+			assertThrows(DockerApiException.class, () -> upload(stub, content, 2));
+			assertEquals(3, stub.count("POST upload"));
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.ubiqube.etsi.mano.docker.OciRegistryStub.Auth;
+
+class ConnectionProbesTest {
+
+	@Test
+	void registryProbeIsCached() {
+		try (OciRegistryStub stub = new OciRegistryStub().auth(Auth.BEARER, "user", "pass")) {
+			final JibDockerService service = new JibDockerService();
+			for (int i = 0; i < 5; i++) {
+				service.verifyConnection(stub.getRegistryInformations());
+			}
+			new HelmOciDockerService().verifyConnection(stub.getRegistryInformations());
+			assertEquals(1, stub.count("GET token"));
+			assertEquals(1, stub.count("GET unscoped token"));
+			assertEquals(0, stub.count("POST upload"));
+		}
+	}
+
+	@Test
+	void wrongCredentials() {
+		for (final Auth auth : new Auth[] { Auth.BASIC, Auth.BEARER }) {
+			try (OciRegistryStub stub = new OciRegistryStub().auth(auth, "user", "pass")) {
+				final RegistryInformations registry = RegistryInformations.builder()
+						.server(stub.getServer())
+						.username("user")
+						.password("other")
+						.build();
+				final JibDockerService service = new JibDockerService();
+				assertThrows(DockerApiException.class, () -> service.verifyConnection(registry), auth::name);
+				assertThrows(DockerApiException.class, () -> service.verifyConnection(registry), auth::name);
+				service.verifyConnection(stub.getRegistryInformations());
+			}
+		}
+	}
+
+	@Test
+	void helmProbeUsesHead() {
+		try (OciRegistryStub stub = new OciRegistryStub().auth(Auth.BASIC, "user", "pass")) {
+			final HelmDockerService service = new HelmDockerService();
+			service.verifyConnection(stub.getRegistryInformations());
+			service.verifyConnection(stub.getRegistryInformations());
+			assertEquals(1, stub.count("HEAD index"));
+			assertEquals(0, stub.count("GET index"));
+		}
+	}
+
+	@Test
+	void refreshedInBackground() throws InterruptedException {
+		final ConnectionProbes probes = new ConnectionProbes(Duration.ofMillis(400), Runnable::run);
+		final RegistryInformations registry = RegistryInformations.builder().server("http://localhost:1").build();
+		final AtomicInteger calls = new AtomicInteger();
+		probes.verify(registry, "TEST", calls::incrementAndGet);
+		probes.verify(registry, "TEST", calls::incrementAndGet);
+		assertEquals(1, calls.get());
+		Thread.sleep(250);
+		probes.verify(registry, "TEST", calls::incrementAndGet);
+		assertEquals(2, calls.get());
+		probes.verify(registry, "TEST", calls::incrementAndGet);
+		assertEquals(2, calls.get());
+	}
+
+	@Test
+	void failuresAreCachedToo() {
+		final ConnectionProbes probes = new ConnectionProbes(Duration.ofMinutes(1), Runnable::run);
+		final RegistryInformations registry = RegistryInformations.builder().server("http://localhost:1").build();
+		final AtomicInteger calls = new AtomicInteger();
+		final Runnable probe = () -> {
+			calls.incrementAndGet();
+			throw new DockerApiException("down");
+		};
+		final DockerApiException first = assertThrows(DockerApiException.class, () -> probes.verify(registry, "TEST", probe));
+		final DockerApiException second = assertThrows(DockerApiException.class, () -> probes.verify(registry, "TEST", probe));
+		assertEquals(1, calls.get());
+		assertNotSame(first, second);
+		assertSame(first.getCause(), second.getCause());
+		assertEquals("down", first.getCause().getMessage());
+		probes.invalidate(registry);
+		assertThrows(DockerApiException.class, () -> probes.verify(registry, "TEST", probe));
+		assertEquals(2, calls.get());
+	}
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.security.DigestException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.cloud.tools.jib.api.DescriptorDigest;
+
+/**
+ * Many onboardings of blocking pushes against a handful of registries, under
+ * the same registry permits in both modes: virtual threads keep more transfers
+ * in flight than the platform pools, and never more than the permits.
+ */
+class ExecutionModeLoadTest {
+	private static final int PUSHES = 100;
+	private static final int LAYERS = 4;
+	private static final int REGISTRIES = 4;
+	/** Simulated transfer time. */
+	private static final long TRANSFER_MILLIS = 20;
+
+	@Test
+	void virtualThreadsKeepMoreTransfersInFlight() {
+		final int permits = RegistryPermits.shared().getPermits();
+		final Load platform = load(ExecutionMode.PLATFORM, permits);
+		final Load virtual = load(ExecutionMode.VIRTUAL, permits);
+		assertTrue(platform.peak() <= permits, "platform: " + platform.peak());
+		assertTrue(virtual.peak() <= permits, "virtual: " + virtual.peak());
+		// The platform pushes are bounded by their threads, not by the permits.
+		assertTrue(virtual.peak() > platform.peak(), virtual + " / " + platform);
+		assertTrue(virtual.elapsed().compareTo(platform.elapsed()) < 0, virtual + " / " + platform);
+	}
+
+	/**
+	 * @return The peak number of transfers against a single registry, and the
+	 *         time taken by all the pushes.
+	 */
+	private static Load load(final ExecutionMode mode, final int permits) {
+		final RegistryPermits registryPermits = new RegistryPermits(permits);
+		final Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+		final AtomicInteger peak = new AtomicInteger();
+		final AtomicInteger done = new AtomicInteger();
+		final long start = System.nanoTime();
+		final List<CompletableFuture<Void>> futures = IntStream.range(0, PUSHES)
+				.mapToObj(i -> "registry-" + (i % REGISTRIES))
+				.map(server -> CompletableFuture.runAsync(() -> {
+					final List<Integer> layers = IntStream.range(0, LAYERS).boxed().toList();
+					ParallelTasks.map(layers, LAYERS, Integer::compare, x -> registryPermits.call(server, () -> {
+						final int now = running.computeIfAbsent(server, k -> new AtomicInteger()).incrementAndGet();
+						peak.accumulateAndGet(now, Math::max);
+						sleep(TRANSFER_MILLIS);
+						running.get(server).decrementAndGet();
+						return done.incrementAndGet();
+					}), mode);
+				}, mode.pushExecutor()))
+				.toList();
+		CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+		assertEquals(PUSHES * LAYERS, done.get());
+		return new Load(peak.get(), Duration.ofNanos(System.nanoTime() - start));
+	}
+
+	/**
+	 * With virtual threads, checks wait for a registry permit like transfers.
+	 */
+	@Test
+	void existenceChecksTakePermits() throws DigestException, InterruptedException {
+		try (OciRegistryStub stub = new OciRegistryStub()) {
+			final PushOptions options = PushOptions.builder().executionMode(ExecutionMode.VIRTUAL).build();
+			final Registry registry = new Registry(RegistrySessions.shared(), new BlobLocationIndex(100), stub.getRegistryInformations(), "mano/checks", options);
+			final List<DescriptorDigest> digests = new ArrayList<>();
+			for (int i = 0; i < 40; i++) {
+				digests.add(DescriptorDigest.fromDigest(OciRegistryStub.sha256(new byte[] { (byte) i })));
+			}
+			final RegistryPermits permits = RegistryPermits.shared();
+			final CountDownLatch held = new CountDownLatch(permits.getPermits());
+			final CountDownLatch release = new CountDownLatch(1);
+			for (int i = 0; i < permits.getPermits(); i++) {
+				Thread.ofVirtual().start(() -> permits.run(stub.getServer(), () -> {
+					held.countDown();
+					await(release);
+				}));
+			}
+			held.await();
+			stub.resetCounters();
+			final CompletableFuture<BlobPlan> plan = CompletableFuture.supplyAsync(() -> registry.checkBlobs(digests));
+			// Every permit is held: once a check waits for one, none could run.
+			assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+				while (permits.getQueueLength(stub.getServer()) == 0) {
+					assertThrows(TimeoutException.class, () -> plan.get(10, TimeUnit.MILLISECONDS), "checks ran without a permit");
+				}
+			});
+			assertEquals(0, stub.count("HEAD blob"));
+			release.countDown();
+			assertEquals(40, plan.join().getMissing().size());
+			assertEquals(40, stub.count("HEAD blob"));
+		}
+	}
+
+	private static void await(final CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DockerApiException(e);
+		}
+	}
+
+	private static void sleep(final long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DockerApiException(e);
+		}
+	}
+
+	private record Load(int peak, Duration elapsed) {
+		//
+	}
+}
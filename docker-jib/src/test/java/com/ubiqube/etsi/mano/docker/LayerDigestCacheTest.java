@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.cloud.tools.jib.api.DescriptorDigest;
+import com.google.cloud.tools.jib.blob.BlobDescriptor;
+
+class LayerDigestCacheTest {
+	@TempDir
+	Path dir;
+
+	private static BlobDescriptor descriptor(final byte[] content) throws DigestException {
+		return new BlobDescriptor(content.length, DescriptorDigest.fromDigest(OciRegistryStub.sha256(content)));
+	}
+
+	@Test
+	void concurrentStoresCountedOnce() throws DigestException, IOException {
+		final byte[] a = TestImages.layer(1_000, 1);
+		final byte[] b = TestImages.layer(1_000, 2);
+		final LayerDigestCache cache = new LayerDigestCache(dir, 100, 2_000);
+		final BlobDescriptor da = descriptor(a);
+		final CyclicBarrier barrier = new CyclicBarrier(8);
+		final List<CompletableFuture<Void>> stores = IntStream.range(0, 8)
+				.mapToObj(i -> CompletableFuture.runAsync(() -> {
+					await(barrier);
+					cache.store(da, new ByteArrayInputStream(a));
+				}))
+				.toList();
+		CompletableFuture.allOf(stores.toArray(CompletableFuture[]::new)).join();
+		// Counted twice, a would be evicted to make room for b.
+		cache.store(descriptor(b), new ByteArrayInputStream(b));
+		assertTrue(cache.contains(da.getDigest()));
+		assertTrue(cache.contains(descriptor(b).getDigest()));
+		try (Stream<Path> files = Files.list(dir.resolve("blobs"))) {
+			assertFalse(files.anyMatch(x -> x.getFileName().toString().endsWith(".tmp")));
+		}
+	}
+
+	@Test
+	void failedStoreIsIgnored() throws DigestException {
+		final byte[] a = TestImages.layer(1_000, 1);
+		final LayerDigestCache cache = new LayerDigestCache(dir, 100, 2_000);
+		final InputStream broken = new InputStream() {
+			@Override
+			public int read() throws IOException {
+				throw new IOException("Disk full");
+			}
+		};
+		cache.store(descriptor(a), broken);
+		assertFalse(cache.contains(descriptor(a).getDigest()));
+	}
+
+	@Test
+	void persistentKeepsLargestBudget() throws DigestException {
+		final byte[] a = TestImages.layer(1_000, 1);
+		final LayerDigestCache small = LayerDigestCache.persistent(dir, 10);
+		final LayerDigestCache large = LayerDigestCache.persistent(dir, 2_000);
+		assertSame(small, large);
+		small.store(descriptor(a), new ByteArrayInputStream(a));
+		assertTrue(small.contains(descriptor(a).getDigest()));
+		// Asking less later does not shrink it.
+		assertSame(large, LayerDigestCache.persistent(dir, 10));
+		assertTrue(large.contains(descriptor(a).getDigest()));
+	}
+
+	private static void await(final CyclicBarrier barrier) {
+		try {
+			barrier.await();
+		} catch (final Exception e) {
+			throw new DockerApiException(e);
+		}
+	}
+}
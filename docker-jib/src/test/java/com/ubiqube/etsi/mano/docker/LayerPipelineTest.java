@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.Closeable;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+class LayerPipelineTest {
+	private static final long STAGE_MILLIS = 20;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger maxInFlight = new AtomicInteger();
+	private final AtomicInteger open = new AtomicInteger();
+
+	/**
+	 * With one worker per stage, the first transfer only ends once the second
+	 * item is prepared.
+	 */
+	@Test
+	void stagesOverlap() {
+		final List<Integer> items = IntStream.range(0, 6).boxed().toList();
+		final PushOptions options = PushOptions.builder().compressionThreads(1).parallelism(1).pipelineDepth(2).build();
+		final CountDownLatch secondPrepared = new CountDownLatch(1);
+		final List<Integer> res = LayerPipeline.map(items, Comparator.naturalOrder(), x -> {
+			final Closeable c = prepare(x);
+			if (x == 1) {
+				secondPrepared.countDown();
+			}
+			return c;
+		}, (x, p) -> {
+			if (x == 0) {
+				assertTrue(await(secondPrepared), "Item 1 was not prepared during the transfer of item 0.");
+			}
+			return transfer(x);
+		}, options);
+		assertEquals(items.stream().map(x -> x * 10).toList(), res);
+		assertEquals(2, maxInFlight.get());
+		assertEquals(0, open.get());
+	}
+
+	@Test
+	void threadBudgetShared() {
+		final PushOptions options = PushOptions.builder().compressionThreads(8).pipelineDepth(8).build();
+		assertEquals(8, LayerPipeline.threadsPerItem(1, options));
+		assertEquals(4, LayerPipeline.threadsPerItem(2, options));
+		assertEquals(1, LayerPipeline.threadsPerItem(20, options));
+		assertEquals(2, LayerPipeline.threadsPerItem(20, PushOptions.builder().compressionThreads(8).pipelineDepth(4).build()));
+	}
+
+	@Test
+	void depthBoundsPreparedItems() {
+		final List<Integer> items = IntStream.range(0, 20).boxed().toList();
+		final PushOptions options = PushOptions.builder().compressionThreads(8).parallelism(1).pipelineDepth(3).build();
+		LayerPipeline.map(items, Comparator.naturalOrder(), this::prepare, (x, p) -> transfer(x), options);
+		assertTrue(maxInFlight.get() <= 3, () -> "" + maxInFlight.get());
+	}
+
+	@Test
+	void failureStopsAndCloses() {
+		final List<Integer> items = IntStream.range(0, 20).boxed().toList();
+		final PushOptions options = PushOptions.builder().compressionThreads(2).parallelism(2).pipelineDepth(4).build();
+		final AtomicInteger transfers = new AtomicInteger();
+		final DockerApiException e = assertThrows(DockerApiException.class, () -> LayerPipeline.map(items, Comparator.naturalOrder(), this::prepare, (x, p) -> {
+			transfers.incrementAndGet();
+			if (x == 2) {
+				throw new DockerApiException("boom");
+			}
+			return transfer(x);
+		}, options));
+		assertEquals("boom", e.getMessage());
+		assertTrue(transfers.get() < items.size());
+		assertEquals(0, open.get());
+	}
+
+	private Closeable prepare(final Integer x) {
+		maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+		open.incrementAndGet();
+		sleep();
+		return open::decrementAndGet;
+	}
+
+	private Integer transfer(final Integer x) {
+		sleep();
+		inFlight.decrementAndGet();
+		return x * 10;
+	}
+
+	private static boolean await(final CountDownLatch latch) {
+		try {
+			return latch.await(10, TimeUnit.SECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DockerApiException(e);
+		}
+	}
+
+	private static void sleep() {
+		try {
+			Thread.sleep(STAGE_MILLIS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DockerApiException(e);
+		}
+	}
+}
@@ -51,12 +51,13 @@ class OciHelmTarFileTest {
 	void testGood(final String archName) {
 		final TarArchiveEntry te1 = new TarArchiveEntry(new File("src/test/resources/Chart.yaml"), "test/folder/Chart.yaml");
 		createTarFile(new File(tempDir, archName), te1);
-		final OciHelmTarFile srv = new OciHelmTarFile(new File(tempDir, archName));
-		assertNotNull(srv);
-//		final RegistryInformations regInfo = new RegistryInformations("http://nexus.ubiqube.com/local-docker/", "ovi", "00539fce-2cb7-11ef-b162-c8f750509d3b");
-		final Registry reg = Mockito.mock(Registry.class);
-		// new Registry(regInfo, "reg");
-		srv.copyTo(reg, "tag");
+		try (final OciHelmTarFile srv = new OciHelmTarFile(new File(tempDir, archName))) {
+			assertNotNull(srv);
+//			final RegistryInformations regInfo = new RegistryInformations("http://nexus.ubiqube.com/local-docker/", "ovi", "00539fce-2cb7-11ef-b162-c8f750509d3b");
+			final Registry reg = Mockito.mock(Registry.class);
+			// new Registry(regInfo, "reg");
+			srv.copyTo(reg, "tag");
+		}
 	}
 
 	static void createTarFile(final File file, final TarArchiveEntry... archiveEntries) {
@@ -0,0 +1,776 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process OCI distribution registry for tests.
+ *
+ * Implements the subset of the distribution API used by Jib and by this module:
+ * blob HEAD/GET, monolithic and chunked uploads, cross repository mount,
+ * manifests PUT/GET/HEAD/DELETE and tag listing. Charts can also be PUT under
+ * {@code /mano/} with an {@code index.yaml}, as a classic Helm repository.
+ * Authentication can be none, basic or bearer. Latency, bandwidth and failures
+ * can be injected.
+ */
+public final class OciRegistryStub implements AutoCloseable {
+	public enum Auth {
+		NONE,
+		BASIC,
+		BEARER
+	}
+
+	private static final Pattern UPLOAD = Pattern.compile("^/v2/(.+)/blobs/uploads/([^/]*)$");
+	private static final Pattern BLOB = Pattern.compile("^/v2/(.+)/blobs/([^/]+)$");
+	private static final Pattern MANIFEST = Pattern.compile("^/v2/(.+)/manifests/([^/]+)$");
+	private static final Pattern TAGS = Pattern.compile("^/v2/(.+)/tags/list$");
+	private static final Pattern CHART = Pattern.compile("^/mano/([^/]+\\.tgz)$");
+	private static final Pattern DIGEST = Pattern.compile("sha256:[0-9a-f]{64}");
+	private static final String DIGEST_HEADER = "Docker-Content-Digest";
+	private static final int TLS_HANDSHAKE = 0x16;
+
+	private final HttpServer server;
+	private final ServerSocket front;
+	private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private final Map<String, byte[]> blobs = new ConcurrentHashMap<>();
+	private final Map<String, Set<String>> repositoryBlobs = new ConcurrentHashMap<>();
+	private final Map<String, Map<String, StoredManifest>> manifests = new ConcurrentHashMap<>();
+	private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+	private final Map<String, byte[]> charts = new ConcurrentHashMap<>();
+	private final Map<String, Long> tokens = new ConcurrentHashMap<>();
+	private final Map<String, String> tokenScopes = new ConcurrentHashMap<>();
+	private final Map<String, AtomicInteger> hits = new ConcurrentHashMap<>();
+	private final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+	private final Map<String, AtomicInteger> maxInFlight = new ConcurrentHashMap<>();
+	private final Map<String, AtomicInteger> failures = new ConcurrentHashMap<>();
+	private final AtomicLong failUploadAt = new AtomicLong(-1);
+	private Auth auth = Auth.NONE;
+	private String username = "user";
+	private String password = "pass";
+	private Duration latency = Duration.ZERO;
+	private long bandwidth;
+	private Duration tokenTtl = Duration.ofMinutes(5);
+	private boolean deleteScope;
+	private boolean manifestBlobs;
+	private boolean contentLength;
+
+	public OciRegistryStub() {
+		try {
+			server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+			front = new ServerSocket(0, 0, InetAddress.getLoopbackAddress());
+		} catch (final IOException e) {
+			throw new DockerApiException(e);
+		}
+		server.setExecutor(executor);
+		server.createContext("/", this::handle);
+		server.start();
+		executor.execute(this::accept);
+	}
+
+	/**
+	 * Jib tries HTTPS first and only fails over to HTTP on a TLS error, refuse
+	 * TLS hand shakes right away and pipe everything else to the HTTP server.
+	 */
+	private void accept() {
+		while (!front.isClosed()) {
+			try {
+				final Socket client = front.accept();
+				sockets.add(client);
+				executor.execute(() -> pipe(client));
+			} catch (final IOException e) {
+				return;
+			}
+		}
+	}
+
+	private void pipe(final Socket client) {
+		try (client;
+				Socket backend = new Socket(InetAddress.getLoopbackAddress(), server.getAddress().getPort())) {
+			sockets.add(backend);
+			final InputStream in = client.getInputStream();
+			final int first = in.read();
+			if ((first == -1) || (first == TLS_HANDSHAKE)) {
+				return;
+			}
+			backend.getOutputStream().write(first);
+			executor.execute(() -> copy(backend, client));
+			copy(in, backend);
+		} catch (final IOException e) {
+			// Connection dropped.
+		} finally {
+			sockets.remove(client);
+		}
+	}
+
+	private static void copy(final Socket from, final Socket to) {
+		try {
+			copy(from.getInputStream(), to);
+		} catch (final IOException e) {
+			// Connection dropped.
+		}
+	}
+
+	private static void copy(final InputStream from, final Socket to) {
+		try {
+			final OutputStream os = to.getOutputStream();
+			final byte[] buffer = new byte[64 * 1024];
+			int n;
+			while ((n = from.read(buffer)) != -1) {
+				os.write(buffer, 0, n);
+				os.flush();
+			}
+			to.shutdownOutput();
+		} catch (final IOException e) {
+			// Connection dropped.
+		}
+	}
+
+	public OciRegistryStub auth(final Auth mode, final String user, final String pass) {
+		this.auth = mode;
+		this.username = user;
+		this.password = pass;
+		return this;
+	}
+
+	/**
+	 * @param delay Delay applied before answering each request.
+	 */
+	public OciRegistryStub latency(final Duration delay) {
+		this.latency = delay;
+		return this;
+	}
+
+	/**
+	 * @param bytesPerSecond Upload bandwidth limit, 0 for unlimited.
+	 */
+	public OciRegistryStub bandwidth(final long bytesPerSecond) {
+		this.bandwidth = bytesPerSecond;
+		return this;
+	}
+
+	/**
+	 * With {@link Auth#BEARER}, refuse a manifest DELETE unless the token was
+	 * asked with a {@code delete} scope, like distribution does.
+	 */
+	public OciRegistryStub requireDeleteScope() {
+		this.deleteScope = true;
+		return this;
+	}
+
+	/**
+	 * Refuse a manifest referencing a blob the repository does not hold, like
+	 * distribution does.
+	 */
+	public OciRegistryStub checkManifestBlobs() {
+		this.manifestBlobs = true;
+		return this;
+	}
+
+	/**
+	 * Refuse a chart upload without a Content-Length, ie: a chunked body.
+	 */
+	public OciRegistryStub requireContentLength() {
+		this.contentLength = true;
+		return this;
+	}
+
+	/**
+	 * Remove the blobs of a repository, as the garbage collector does once its
+	 * manifests are gone.
+	 */
+	public void collectGarbage(final String repository) {
+		repositoryBlobs.remove(repository);
+	}
+
+	public OciRegistryStub tokenTtl(final Duration ttl) {
+		this.tokenTtl = ttl;
+		return this;
+	}
+
+	/**
+	 * Answer the next {@code count} requests of the given kind with a 503.
+	 *
+	 * @param kind A kind as reported by {@link #count(String)}.
+	 */
+	public OciRegistryStub failNext(final String kind, final int count) {
+		failures.computeIfAbsent(kind, k -> new AtomicInteger()).addAndGet(count);
+		return this;
+	}
+
+	/**
+	 * Break the first PATCH crossing {@code offset} bytes: bytes before the offset
+	 * are kept, then a 500 is returned.
+	 */
+	public OciRegistryStub failUploadAt(final long offset) {
+		failUploadAt.set(offset);
+		return this;
+	}
+
+	public String getServer() {
+		return "http://localhost:" + front.getLocalPort();
+	}
+
+	public RegistryInformations getRegistryInformations() {
+		return RegistryInformations.builder()
+				.server(getServer())
+				.username(username)
+				.password(password)
+				.build();
+	}
+
+	/**
+	 * Number of requests seen for a kind, ie: {@code "HEAD blob"},
+	 * {@code "POST upload"}, {@code "POST mount"}, {@code "PATCH upload"},
+	 * {@code "PUT upload"}, {@code "GET upload"}, {@code "PUT manifest"},
+	 * {@code "GET manifest"}, {@code "HEAD manifest"}, {@code "DELETE manifest"},
+	 * {@code "GET tags"}, {@code "GET base"}, {@code "HEAD base"},
+	 * {@code "GET token"}, {@code "GET delete token"},
+	 * {@code "GET unscoped token"}.
+	 */
+	public int count(final String kind) {
+		return Optional.ofNullable(hits.get(kind)).map(AtomicInteger::get).orElse(0);
+	}
+
+	/**
+	 * Highest number of requests of a kind handled at the same time.
+	 */
+	public int maxConcurrent(final String kind) {
+		return Optional.ofNullable(maxInFlight.get(kind)).map(AtomicInteger::get).orElse(0);
+	}
+
+	public void resetCounters() {
+		hits.clear();
+		maxInFlight.clear();
+	}
+
+	public boolean hasBlob(final String repository, final String digest) {
+		return repositoryBlobs.getOrDefault(repository, Set.of()).contains(digest);
+	}
+
+	public byte[] getBlob(final String digest) {
+		return blobs.get(digest);
+	}
+
+	public Optional<String> getManifest(final String repository, final String reference) {
+		return Optional.ofNullable(manifests.getOrDefault(repository, Map.of()).get(reference))
+				.map(x -> new String(x.content(), StandardCharsets.UTF_8));
+	}
+
+	public Set<String> getTags(final String repository) {
+		return manifests.getOrDefault(repository, Map.of()).keySet().stream()
+				.filter(x -> !x.startsWith("sha256:"))
+				.collect(Collectors.toSet());
+	}
+
+	/**
+	 * Seed a blob in a repository.
+	 */
+	public Optional<byte[]> getChart(final String name) {
+		return Optional.ofNullable(charts.get(name));
+	}
+
+	public String putBlob(final String repository, final byte[] content) {
+		final String digest = sha256(content);
+		blobs.put(digest, content);
+		repositoryBlobs.computeIfAbsent(repository, k -> ConcurrentHashMap.newKeySet()).add(digest);
+		return digest;
+	}
+
+	/**
+	 * Seed a manifest in a repository under a tag.
+	 */
+	public String putManifest(final String repository, final String tag, final String mediaType, final byte[] content) {
+		final String digest = sha256(content);
+		final StoredManifest sm = new StoredManifest(mediaType, content, digest);
+		final Map<String, StoredManifest> repo = manifests.computeIfAbsent(repository, k -> new ConcurrentHashMap<>());
+		repo.put(tag, sm);
+		repo.put(digest, sm);
+		return digest;
+	}
+
+	@Override
+	public void close() {
+		try {
+			front.close();
+			for (final Socket socket : sockets) {
+				socket.close();
+			}
+		} catch (final IOException e) {
+			throw new DockerApiException(e);
+		}
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void handle(final HttpExchange exchange) throws IOException {
+		try (exchange) {
+			sleep(latency.toMillis());
+			final String path = exchange.getRequestURI().getPath();
+			final String method = exchange.getRequestMethod();
+			if ("/token".equals(path)) {
+				hit("GET token");
+				token(exchange);
+				return;
+			}
+			final String kind = kind(method, path);
+			hit(kind);
+			final AtomicInteger running = inFlight.computeIfAbsent(kind, k -> new AtomicInteger());
+			final int now = running.incrementAndGet();
+			maxInFlight.computeIfAbsent(kind, k -> new AtomicInteger()).accumulateAndGet(now, Math::max);
+			try {
+				if (!authorized(exchange)) {
+					challenge(exchange, null);
+					return;
+				}
+				if (deleteScope && "DELETE manifest".equals(kind) && !hasDeleteScope(exchange)) {
+					final Matcher m = MANIFEST.matcher(path);
+					challenge(exchange, m.matches() ? "repository:" + m.group(1) + ":delete" : null);
+					return;
+				}
+				final AtomicInteger fail = failures.get(kind);
+				if ((null != fail) && (fail.getAndUpdate(x -> Math.max(0, x - 1)) > 0)) {
+					drain(exchange);
+					send(exchange, 503, new byte[0]);
+					return;
+				}
+				route(exchange, method, path);
+			} finally {
+				running.decrementAndGet();
+			}
+		} catch (final RuntimeException e) {
+			send(exchange, 500, e.toString().getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private void route(final HttpExchange exchange, final String method, final String path) throws IOException {
+		if ("/v2/".equals(path) || "/v2".equals(path)) {
+			send(exchange, 200, "{}".getBytes(StandardCharsets.UTF_8));
+			return;
+		}
+		Matcher m = UPLOAD.matcher(path);
+		if (m.matches()) {
+			upload(exchange, method, m.group(1), m.group(2));
+			return;
+		}
+		m = BLOB.matcher(path);
+		if (m.matches()) {
+			blob(exchange, method, m.group(1), m.group(2));
+			return;
+		}
+		m = MANIFEST.matcher(path);
+		if (m.matches()) {
+			manifest(exchange, method, m.group(1), m.group(2));
+			return;
+		}
+		m = TAGS.matcher(path);
+		if (m.matches()) {
+			tags(exchange, m.group(1));
+			return;
+		}
+		m = CHART.matcher(path);
+		if (m.matches() && "PUT".equals(method)) {
+			if (contentLength && (null == exchange.getRequestHeaders().getFirst("Content-Length"))) {
+				readBody(exchange);
+				send(exchange, 411, new byte[0]);
+				return;
+			}
+			charts.put(m.group(1), readBody(exchange));
+			send(exchange, 200, new byte[0]);
+			return;
+		}
+		if ("/index.yaml".equals(path)) {
+			send(exchange, 200, index());
+			return;
+		}
+		send(exchange, 404, new byte[0]);
+	}
+
+	private static String kind(final String method, final String path) {
+		if (path.startsWith("/v2/") && path.contains("/blobs/uploads/")) {
+			return method + " upload";
+		}
+		if (path.contains("/blobs/")) {
+			return method + " blob";
+		}
+		if (path.contains("/manifests/")) {
+			return method + " manifest";
+		}
+		if (path.endsWith("/tags/list")) {
+			return method + " tags";
+		}
+		if (path.startsWith("/mano/")) {
+			return method + " chart";
+		}
+		if ("/index.yaml".equals(path)) {
+			return method + " index";
+		}
+		return method + " base";
+	}
+
+	private void blob(final HttpExchange exchange, final String method, final String repository, final String digest) throws IOException {
+		if (!hasBlob(repository, digest)) {
+			send(exchange, 404, error("BLOB_UNKNOWN"));
+			return;
+		}
+		final byte[] content = blobs.get(digest);
+		exchange.getResponseHeaders().add(DIGEST_HEADER, digest);
+		if ("HEAD".equals(method)) {
+			exchange.getResponseHeaders().add("Content-Length", Long.toString(content.length));
+			exchange.sendResponseHeaders(200, -1);
+			return;
+		}
+		send(exchange, 200, content);
+	}
+
+	private void upload(final HttpExchange exchange, final String method, final String repository, final String id) throws IOException {
+		final Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+		if ("POST".equals(method)) {
+			final String mount = query.get("mount");
+			if ((null != mount) && hasBlob(query.getOrDefault("from", ""), mount)) {
+				hit("POST mount");
+				repositoryBlobs.computeIfAbsent(repository, k -> ConcurrentHashMap.newKeySet()).add(mount);
+				exchange.getResponseHeaders().add("Location", getServer() + "/v2/" + repository + "/blobs/" + mount);
+				exchange.getResponseHeaders().add(DIGEST_HEADER, mount);
+				send(exchange, 201, new byte[0]);
+				return;
+			}
+			final String uuid = UUID.randomUUID().toString();
+			uploads.put(uuid, new Upload(repository, new ByteArrayOutputStream()));
+			if (null != query.get("digest")) {
+				final byte[] body = readBody(exchange);
+				uploads.get(uuid).data().write(body);
+				commit(exchange, uuid, query.get("digest"));
+				return;
+			}
+			sendUploadStatus(exchange, 202, uuid);
+			return;
+		}
+		final Upload up = uploads.get(id);
+		if (null == up) {
+			send(exchange, 404, error("BLOB_UPLOAD_UNKNOWN"));
+			return;
+		}
+		switch (method) {
+		case "GET" -> sendUploadStatus(exchange, 204, id);
+		case "PATCH" -> patch(exchange, id, up);
+		case "PUT" -> {
+			up.data().write(readBody(exchange));
+			commit(exchange, id, query.get("digest"));
+		}
+		case "DELETE" -> {
+			uploads.remove(id);
+			send(exchange, 204, new byte[0]);
+		}
+		default -> send(exchange, 405, new byte[0]);
+		}
+	}
+
+	private void patch(final HttpExchange exchange, final String id, final Upload up) throws IOException {
+		final String range = exchange.getRequestHeaders().getFirst("Content-Range");
+		synchronized (up) {
+			if (null != range) {
+				final long start = Long.parseLong(range.split("-")[0].trim());
+				if (start != up.data().size()) {
+					drain(exchange);
+					sendUploadStatus(exchange, 416, id);
+					return;
+				}
+			}
+			final byte[] body = readBody(exchange);
+			final long failAt = failUploadAt.get();
+			final long end = (long) up.data().size() + body.length;
+			if ((failAt >= up.data().size()) && (failAt < end) && failUploadAt.compareAndSet(failAt, -1)) {
+				up.data().write(body, 0, (int) (failAt - up.data().size()));
+				send(exchange, 500, new byte[0]);
+				return;
+			}
+			up.data().write(body);
+		}
+		sendUploadStatus(exchange, 202, id);
+	}
+
+	private void commit(final HttpExchange exchange, final String id, final String digest) throws IOException {
+		final Upload up = uploads.remove(id);
+		final byte[] content = up.data().toByteArray();
+		final String actual = sha256(content);
+		if (!actual.equals(digest)) {
+			send(exchange, 400, error("DIGEST_INVALID"));
+			return;
+		}
+		putBlob(up.repository(), content);
+		exchange.getResponseHeaders().add("Location", getServer() + "/v2/" + up.repository() + "/blobs/" + digest);
+		exchange.getResponseHeaders().add(DIGEST_HEADER, digest);
+		send(exchange, 201, new byte[0]);
+	}
+
+	private void sendUploadStatus(final HttpExchange exchange, final int code, final String uuid) throws IOException {
+		final Upload up = uploads.get(uuid);
+		exchange.getResponseHeaders().add("Location", getServer() + "/v2/" + up.repository() + "/blobs/uploads/" + uuid);
+		exchange.getResponseHeaders().add("Docker-Upload-UUID", uuid);
+		exchange.getResponseHeaders().add("Range", "0-" + Math.max(0, up.data().size() - 1));
+		send(exchange, code, new byte[0]);
+	}
+
+	private void manifest(final HttpExchange exchange, final String method, final String repository, final String reference) throws IOException {
+		final Map<String, StoredManifest> repo = manifests.computeIfAbsent(repository, k -> new ConcurrentHashMap<>());
+		switch (method) {
+		case "PUT" -> {
+			final byte[] body = readBody(exchange);
+			if (manifestBlobs && DIGEST.matcher(new String(body, StandardCharsets.UTF_8)).results().anyMatch(x -> !hasBlob(repository, x.group()))) {
+				send(exchange, 400, error("MANIFEST_BLOB_UNKNOWN"));
+				return;
+			}
+			final String type = Optional.ofNullable(exchange.getRequestHeaders().getFirst("Content-Type")).orElse("");
+			final String digest = putManifest(repository, reference, type, body);
+			exchange.getResponseHeaders().add(DIGEST_HEADER, digest);
+			exchange.getResponseHeaders().add("Location", getServer() + "/v2/" + repository + "/manifests/" + digest);
+			send(exchange, 201, new byte[0]);
+		}
+		case "GET", "HEAD" -> {
+			final StoredManifest sm = repo.get(reference);
+			if (null == sm) {
+				send(exchange, 404, error("MANIFEST_UNKNOWN"));
+				return;
+			}
+			exchange.getResponseHeaders().add("Content-Type", sm.mediaType());
+			exchange.getResponseHeaders().add(DIGEST_HEADER, sm.digest());
+			if ("HEAD".equals(method)) {
+				exchange.getResponseHeaders().add("Content-Length", Long.toString(sm.content().length));
+				exchange.sendResponseHeaders(200, -1);
+				return;
+			}
+			send(exchange, 200, sm.content());
+		}
+		case "DELETE" -> {
+			final StoredManifest sm = repo.get(reference);
+			if ((null == sm) || !reference.startsWith("sha256:")) {
+				send(exchange, 404, error("MANIFEST_UNKNOWN"));
+				return;
+			}
+			repo.entrySet().removeIf(x -> x.getValue().digest().equals(reference));
+			send(exchange, 202, new byte[0]);
+		}
+		default -> send(exchange, 405, new byte[0]);
+		}
+	}
+
+	private void tags(final HttpExchange exchange, final String repository) throws IOException {
+		final Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+		final List<String> all = getTags(repository).stream().sorted().toList();
+		final String last = query.get("last");
+		final int n = Integer.parseInt(query.getOrDefault("n", "1000"));
+		final List<String> page = all.stream().filter(x -> (null == last) || (x.compareTo(last) > 0)).limit(n).toList();
+		if ((page.size() == n) && !page.isEmpty() && !page.getLast().equals(all.getLast())) {
+			exchange.getResponseHeaders().add("Link", "</v2/" + repository + "/tags/list?n=" + n + "&last=" + page.getLast() + ">; rel=\"next\"");
+		}
+		final String json = page.stream().map(x -> "\"" + x + "\"").collect(Collectors.joining(",", "{\"name\":\"" + repository + "\",\"tags\":[", "]}"));
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		send(exchange, 200, json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private byte[] index() {
+		final String entries = charts.keySet().stream()
+				.sorted()
+				.map(x -> "  %s:%n  - urls:%n    - mano/%s%n".formatted(x.replace(".tgz", ""), x))
+				.collect(Collectors.joining());
+		return "apiVersion: v1%nentries:%s%n%s".formatted(charts.isEmpty() ? " {}" : "", entries).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private void token(final HttpExchange exchange) throws IOException {
+		if (!validBasic(exchange.getRequestHeaders().getFirst("Authorization"))) {
+			send(exchange, 401, error("UNAUTHORIZED"));
+			return;
+		}
+		final String scope = query(exchange.getRequestURI().getRawQuery()).getOrDefault("scope", "");
+		if (scope.endsWith(":delete") || scope.contains(":delete,") || scope.contains(",delete")) {
+			hit("GET delete token");
+		}
+		if (scope.isEmpty()) {
+			hit("GET unscoped token");
+		}
+		final String token = UUID.randomUUID().toString();
+		tokens.put(token, System.currentTimeMillis() + tokenTtl.toMillis());
+		tokenScopes.put(token, scope);
+		final String json = "{\"token\":\"" + token + "\",\"expires_in\":" + tokenTtl.toSeconds() + "}";
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		send(exchange, 200, json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private boolean authorized(final HttpExchange exchange) {
+		final String header = exchange.getRequestHeaders().getFirst("Authorization");
+		return switch (auth) {
+		case NONE -> true;
+		case BASIC -> validBasic(header);
+		case BEARER -> (null != header) && header.startsWith("Bearer ")
+				&& Optional.ofNullable(tokens.get(header.substring(7))).filter(x -> x > System.currentTimeMillis()).isPresent();
+		};
+	}
+
+	private boolean hasDeleteScope(final HttpExchange exchange) {
+		final String header = exchange.getRequestHeaders().getFirst("Authorization");
+		if ((auth != Auth.BEARER) || (null == header)) {
+			return true;
+		}
+		final String scope = tokenScopes.getOrDefault(header.substring(7), "");
+		return scope.endsWith(":delete") || scope.contains(":delete,") || scope.contains(",delete");
+	}
+
+	private boolean validBasic(final String header) {
+		if ((null == header) || !header.startsWith("Basic ")) {
+			return false;
+		}
+		final String decoded = new String(Base64.getDecoder().decode(header.substring(6)), StandardCharsets.UTF_8);
+		return decoded.equals(username + ":" + password);
+	}
+
+	private void challenge(final HttpExchange exchange, final String scope) throws IOException {
+		drain(exchange);
+		final String header = switch (auth) {
+		case BEARER -> "Bearer realm=\"" + getServer() + "/token\",service=\"stub\"" + (null == scope ? "" : ",scope=\"" + scope + "\",error=\"insufficient_scope\"");
+		default -> "Basic realm=\"stub\"";
+		};
+		exchange.getResponseHeaders().add("WWW-Authenticate", header);
+		send(exchange, 401, error("UNAUTHORIZED"));
+	}
+
+	private byte[] readBody(final HttpExchange exchange) throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[64 * 1024];
+		final long start = System.nanoTime();
+		long total = 0;
+		try (InputStream is = exchange.getRequestBody()) {
+			int n;
+			while ((n = is.read(buffer)) != -1) {
+				baos.write(buffer, 0, n);
+				total += n;
+				throttle(start, total);
+			}
+		}
+		return baos.toByteArray();
+	}
+
+	private void throttle(final long start, final long total) {
+		if (bandwidth <= 0) {
+			return;
+		}
+		final long expected = (total * 1_000L) / bandwidth;
+		final long elapsed = (System.nanoTime() - start) / 1_000_000L;
+		sleep(expected - elapsed);
+	}
+
+	private static void drain(final HttpExchange exchange) throws IOException {
+		try (InputStream is = exchange.getRequestBody()) {
+			is.transferTo(OutputStream.nullOutputStream());
+		}
+	}
+
+	private static void send(final HttpExchange exchange, final int code, final byte[] body) throws IOException {
+		if ((body.length == 0) || "HEAD".equals(exchange.getRequestMethod())) {
+			exchange.sendResponseHeaders(code, -1);
+			return;
+		}
+		exchange.sendResponseHeaders(code, body.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(body);
+		}
+	}
+
+	private static byte[] error(final String code) {
+		return ("{\"errors\":[{\"code\":\"" + code + "\",\"message\":\"" + code + "\"}]}").getBytes(StandardCharsets.UTF_8);
+	}
+
+	private void hit(final String kind) {
+		hits.computeIfAbsent(kind, k -> new AtomicInteger()).incrementAndGet();
+	}
+
+	private static Map<String, String> query(final String raw) {
+		if (null == raw) {
+			return Map.of();
+		}
+		final Map<String, String> ret = new ConcurrentHashMap<>();
+		for (final String kv : raw.split("&")) {
+			final String[] p = kv.split("=", 2);
+			ret.put(decode(p[0]), p.length > 1 ? decode(p[1]) : "");
+		}
+		return ret;
+	}
+
+	private static String decode(final String s) {
+		return java.net.URLDecoder.decode(s, StandardCharsets.UTF_8);
+	}
+
+	private static void sleep(final long millis) {
+		if (millis <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(millis);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	static String sha256(final byte[] content) {
+		try {
+			final byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+			return "sha256:" + IntStream.range(0, hash.length)
+					.mapToObj(x -> String.format("%02x", hash[x]))
+					.collect(Collectors.joining());
+		} catch (final NoSuchAlgorithmException e) {
+			throw new DockerApiException(e);
+		}
+	}
+
+	private record Upload(String repository, ByteArrayOutputStream data) {
+		//
+	}
+
+	private record StoredManifest(String mediaType, byte[] content, String digest) {
+		//
+	}
+}
@@ -0,0 +1,455 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.DigestException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.tools.jib.api.DescriptorDigest;
+import com.ubiqube.etsi.mano.docker.OciRegistryStub.Auth;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Every service pushed against the in-process registry, no network needed.
+ */
+class OciRegistryStubTest {
+	private static final Pattern DIGEST = Pattern.compile("sha256:[0-9a-f]{64}");
+
+	@TempDir
+	File tmp;
+
+	private static List<byte[]> layers() {
+		return List.of(TestImages.layer(1_500_000, 1), TestImages.layer(10_000, 2), TestImages.layer(700_000, 3));
+	}
+
+	private static void push(final OciRegistryStub stub, final PushOptions options, final File file, final String image) throws IOException {
+		push(stub.getRegistryInformations(), options, file, image);
+	}
+
+	private static void push(final RegistryInformations registry, final PushOptions options, final File file, final String image) throws IOException {
+		try (InputStream is = new FileInputStream(file)) {
+			new JibDockerService(options).sendToRegistry(is, file.getName(), registry, image, "latest");
+		}
+	}
+
+	/**
+	 * All blobs referenced by the manifest of {@code image:latest} are stored and
+	 * match their digest.
+	 */
+	private static void assertComplete(final OciRegistryStub stub, final String image, final int blobs) {
+		final String manifest = stub.getManifest(image, "latest").orElseThrow();
+		final Matcher m = DIGEST.matcher(manifest);
+		int n = 0;
+		while (m.find()) {
+			final String digest = m.group();
+			assertTrue(stub.hasBlob(image, digest), digest);
+			assertEquals(digest, OciRegistryStub.sha256(stub.getBlob(digest)));
+			n++;
+		}
+		assertEquals(blobs, n, manifest);
+	}
+
+	@Test
+	void ociLayoutWithBearer() throws IOException {
+		try (OciRegistryStub stub = new OciRegistryStub().auth(Auth.BEARER, "user", "pass")) {
+			final File f = new File(tmp, "oci.tar");
+			TestImages.ociLayout(f, layers());
+			push(stub, PushOptions.builder().build(), f, "test/oci");
+			assertComplete(stub, "test/oci", 4);
+			assertTrue(stub.count("GET token") > 0);
+		}
+	}
+
+	@Test
+	void ociLayoutStreaming() throws IOException {
+		try (OciRegistryStub stub = new OciRegistryStub()) {
+			final File f = new File(tmp, "oci.tar");
+			TestImages.ociLayout(f, layers());
+			push(stub, PushOptions.builder().streaming(true).build(), f, "test/oci");
+			assertComplete(stub, "test/oci", 4);
+		}
+	}
+
+	@Test
+	void ociLayoutStreamingKeepsMediaTypes() throws IOException {
+		try (OciRegistryStub stub = new OciRegistryStub()) {
+			final File f = new File(tmp, "oci.tar");
+			TestImages.ociLayout(f, Map.of("amd64", layers()), false);
+			push(stub, PushOptions.builder().streaming(true).build(), f, "test/plain");
+			assertComplete(stub, "test/plain", 4);
+			final JsonNode manifest = new ObjectMapper().readTree(stub.getManifest("test/plain", "latest").orElseThrow());
+			manifest.path("layers").forEach(x -> assertEquals("application/vnd.oci.image.layer.v1.tar", x.path("mediaType").asText()));
+		}
+	}
+
+	@ParameterizedTest
+	@EnumSource(LayerCodec.class)
+	void ociLayoutStreamingCompressed(final LayerCodec codec) throws IOException {
+		try (OciRegistryStub stub = new OciRegistryStub()) {
+			final File f = new File(tmp, "oci.tar");
+			final List<byte[]> raw = layers();
+			TestImages.ociLayout(f, Map.of("amd64", raw), false);
+			push(stub, PushOptions.builder().streaming(true).compression(codec).build(), f, "test/streamed");
+			assertComplete(stub, "test/streamed", 4);
+			final JsonNode manifest = new ObjectMapper().readTree(stub.getManifest("test/streamed", "latest").orElseThrow());
+			for (int i = 0; i < raw.size(); i++) {
+				final JsonNode layer = manifest.path("layers").get(i);
+				assertEquals(codec.getMediaType(), layer.path("mediaType").asText());
+				try (InputStream is = LayerCodec.decode(new ByteArrayInputStream(stub.getBlob(layer.path("digest").asText())), codec.getMediaType()).orElseThrow()) {
+					assertArrayEquals(raw.get(i), is.readAllBytes());
+				}
+			}
+		}
+	}
+
+	@Test
+	void ociLayoutStreamingKeepsLargeJson() throws IOException {
+		try (OciRegistryStub stub = new OciRegistryStub()) {
+			final File f = new File(tmp, "oci.tar");
+			TestImages.ociLayout(f, layers());
+			final PushOptions options = PushOptions.builder().streaming(true).build();
+			// Configuration and manifest are over the limit, and kept in files.
+			try (InputStream is = new FileInputStream(f)) {
+				new OciTarStream(is, options, 16, 0).copyTo(Registry.of(stub.getRegistryInformations(), "test/json", options, ArtifactType.OCI), "latest");
+			}
+			assertComplete(stub, "test/json", 4);
+		}
+	}
+
+	@ParameterizedTest
+	@ValueSource(booleans = { false, true })
+	void multiPlatformIndex(final boolean streaming) throws IOException {
+		try (OciRegistryStub stub = new OciRegistryStub()) {
+			final byte[] shared = TestImages.layer(600_000, 1);
+			final File f = new File(tmp, "multi.tar");
+			final Map<String, List<byte[]>> platforms = new LinkedHashMap<>();
+			platforms.put("amd64", List.of(shared, TestImages.layer(20_000, 2)));
+			platforms.put("arm64", List.of(shared, TestImages.layer(30_000, 3)));
+			TestImages.ociLayout(f, platforms);
+			push(stub, PushOptions.builder().streaming(streaming).parallelism(2).build(), f, "test/multi");
+			// 3 distinct layers and 2 configurations.
+			assertEquals(5, stub.count("POST upload"));
+			final JsonNode index = new ObjectMapper().readTree(stub.getManifest("test/multi", "latest").orElseThrow());
+			assertEquals("application/vnd.oci.image.index.v1+json", index.path("mediaType").asText());
+			assertEquals(2, index.path("manifests").size());
+			final List<String> archs = new ArrayList<>();
+			for (final JsonNode descriptor : index.path("manifests")) {
+				archs.add(descriptor.path("platform").path("architecture").asText());
+				final String manifest = stub.getManifest("test/multi", descriptor.path("digest").asText()).orElseThrow();
+				assertEquals(descriptor.path("size").asLong(), manifest.getBytes(StandardCharsets.UTF_8).length);
+				final Matcher m = DIGEST.matcher(manifest);
+				while (m.find()) {
+					assertTrue(stub.hasBlob("test/multi", m.group()), m.group());
+				}
+			}
+			assertEquals(List.of("amd64", "arm64"), archs);
+		}
+	}
+
+	@Test
+	void dockerSaveWithBasic() throws IOException {
+		try (OciRegistryStub stub = new OciRegistryStub().auth(Auth.BASIC, "user", "pass")) {
+			final File f = new File(tmp, "docker.tar");
+			TestImages.dockerSave(f, layers());
+			push(stub, PushOptions.builder().parallelism(3).build(), f, "test/docker");
+			assertComplete(stub, "test/docker", 4);
+		}
+	}
+
+	@ParameterizedTest
+	@EnumSource(LayerCodec.class)
+	void dockerSaveCompressed(final LayerCodec codec) throws IOException {
+		try (OciRegistryStub stub = new OciRegistryStub()) {
+			final File f = new File(tmp, "docker.tar");
+			final List<byte[]> raw = layers();
+			TestImages.dockerSave(f, raw);
+			push(stub, PushOptions.builder().compression(codec).parallelism(2).build(), f, "test/compressed");
+			assertComplete(stub, "test/compressed", 4);
+			final JsonNode manifest = new ObjectMapper().readTree(stub.getManifest("test/compressed", "latest").orElseThrow());
+			final JsonNode config = new ObjectMapper().readTree(stub.getBlob(manifest.path("config").path("digest").asText()));
+			for (int i = 0; i < raw.size(); i++) {
+				final JsonNode layer = manifest.path("layers").get(i);
+				final byte[] blob = stub.getBlob(layer.path("digest").asText());
+				assertTrue(blob.length < raw.get(i).length);
+				try (InputStream is = LayerCodec.decode(new ByteArrayInputStream(blob), layer.path("mediaType").asText()).orElseThrow()) {
+					assertArrayEquals(raw.get(i), is.readAllBytes());
+				}
+				assertEquals(OciRegistryStub.sha256(raw.get(i)), config.path("rootfs").path("diff_ids").get(i).asText());
+			}
+		}
+	}
+
+	@Test
+	void layerDigestCache() throws IOException {
+		final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+		PushMetrics.shared().bindTo(meters);
+		try {
+			final File f = new File(tmp, "docker.tar");
+			TestImages.dockerSave(f, layers());
+			final PushOptions options = PushOptions.builder()
+					.compression(LayerCodec.GZIP)
+					.layerCache(new File(tmp, "cache").toPath())
+					.layerCacheBytes(100_000_000)
+					.build();
+			try (OciRegistryStub first = new OciRegistryStub();
+					OciRegistryStub second = new OciRegistryStub()) {
+				push(first, options, f, "test/cache");
+				push(first, options, f, "test/cache");
+				// Uploaded from the kept layers.
+				push(second, options, f, "test/cache");
+				assertEquals(3, compressions(meters, first));
+				assertEquals(0, compressions(meters, second));
+				assertEquals(first.getManifest("test/cache", "latest"), second.getManifest("test/cache", "latest"));
+				assertComplete(second, "test/cache", 4);
+			}
+		} finally {
+			PushMetrics.shared().unbind(meters);
+		}
+	}
+
+	@Test
+	void manifestRefusedCounted() throws IOException {
+		final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+		PushMetrics.shared().bindTo(meters);
+		try (OciRegistryStub stub = new OciRegistryStub()) {
+			final File f = new File(tmp, "docker.tar");
+			TestImages.dockerSave(f, layers());
+			stub.failNext("PUT manifest", 10);
+			assertThrows(DockerApiException.class, () -> push(stub, PushOptions.builder().build(), f, "test/refused"));
+			assertTrue(stub.getManifest("test/refused", "latest").isEmpty());
+			assertEquals(1, meters.find("mano.docker.push.failures")
+					.tag("stage", "manifest")
+					.tag("registry", RegistrySession.getHost(stub.getServer()))
+					.counter().count());
+		} finally {
+			PushMetrics.shared().unbind(meters);
+		}
+	}
+
+	private static long compressions(final SimpleMeterRegistry meters, final OciRegistryStub stub) {
+		return meters.find("mano.docker.push.stage")
+				.tag("stage", "compression")
+				.tag("registry", RegistrySession.getHost(stub.getServer()))
+				.timers().stream()
+				.mapToLong(Timer::count)
+				.sum();
+	}
+
+	@Test
+	void staleLocationIndex() throws IOException {
+		try (OciRegistryStub stub = new OciRegistryStub().checkManifestBlobs()) {
+			final File f = new File(tmp, "docker.tar");
+			TestImages.dockerSave(f, layers());
+			push(stub, PushOptions.builder().build(), f, "test/gc");
+			stub.collectGarbage("test/gc");
+			stub.resetCounters();
+			// The index still lists the collected blobs.
+			push(stub, PushOptions.builder().build(), f, "test/gc");
+			assertEquals(2, stub.count("PUT manifest"));
+			assertComplete(stub, "test/gc", 4);
+		}
+	}
+
+	@Test
+	void deleteForgetsLocations() throws IOException, DigestException {
+		try (OciRegistryStub stub = new OciRegistryStub()) {
+			final File f = new File(tmp, "docker.tar");
+			TestImages.dockerSave(f, layers());
+			push(stub, PushOptions.builder().build(), f, "test/deleted");
+			final BlobLocationIndex index = BlobLocationIndex.shared();
+			final List<DescriptorDigest> known = new ArrayList<>();
+			final Matcher m = DIGEST.matcher(stub.getManifest("test/deleted", "latest").orElseThrow());
+			while (m.find()) {
+				final DescriptorDigest digest = DescriptorDigest.fromDigest(m.group());
+				if (index.getSize(stub.getServer(), "test/deleted", digest).isPresent()) {
+					known.add(digest);
+				}
+			}
+			assertFalse(known.isEmpty());
+			Registry.of(stub.getRegistryInformations(), "test/deleted").deleteManifest("latest");
+			for (final DescriptorDigest digest : known) {
+				assertTrue(index.getSize(stub.getServer(), "test/deleted", digest).isEmpty(), digest.toString());
+			}
+		}
+	}
+
+	@Test
+	void wrongPassword() throws IOException {
+		try (OciRegistryStub stub = new OciRegistryStub().auth(Auth.BASIC, "user", "pass")) {
+			final File f = new File(tmp, "docker.tar");
+			TestImages.dockerSave(f, layers());
+			final RegistryInformations registry = RegistryInformations.builder()
+					.server(stub.getServer())
+					.username("user")
+					.password("other")
+					.build();
+			assertThrows(RuntimeException.class, () -> push(registry, PushOptions.builder().build(), f, "test/docker"));
+			assertTrue(stub.getManifest("test/docker", "latest").isEmpty());
+		}
+	}
+
+	@Test
+	void mountFromOtherRepository() throws IOException {
+		try (OciRegistryStub stub = new OciRegistryStub()) {
+			final File f = new File(tmp, "docker.tar");
+			TestImages.dockerSave(f, layers());
+			push(stub, PushOptions.builder().build(), f, "base/a");
+			stub.resetCounters();
+			push(stub, PushOptions.builder().build(), f, "vnf/b");
+			assertEquals(3, stub.count("POST mount"));
+			assertComplete(stub, "vnf/b", 4);
+		}
+	}
+
+	@Test
+	void chunkedUploadResumes() throws IOException {
+		try (OciRegistryStub stub = new OciRegistryStub().auth(Auth.BEARER, "user", "pass")) {
+			final File f = new File(tmp, "oci.tar");
+			TestImages.ociLayout(f, layers());
+			stub.failUploadAt(500_000).failNext("PATCH upload", 1);
+			push(stub, PushOptions.builder().chunkSize(256 * 1024).build(), f, "test/chunk");
+			assertTrue(stub.count("GET upload") >= 2);
+			assertComplete(stub, "test/chunk", 4);
+		}
+	}
+
+	@Test
+	void throttledRegistry() throws IOException {
+		try (OciRegistryStub stub = new OciRegistryStub().latency(Duration.ofMillis(5)).bandwidth(4 * 1024 * 1024)) {
+			final File f = new File(tmp, "docker.tar");
+			TestImages.dockerSave(f, layers());
+			final long start = System.nanoTime();
+			push(stub, PushOptions.builder().build(), f, "test/slow");
+			assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() >= 250);
+			assertComplete(stub, "test/slow", 4);
+		}
+	}
+
+	@Test
+	void helmOci() throws IOException {
+		try (OciRegistryStub stub = new OciRegistryStub().auth(Auth.BEARER, "user", "pass")) {
+			final File f = new File(tmp, "chart.tar");
+			OciHelmTarFileTest.createTarFile(f, new TarArchiveEntry(new File("src/test/resources/Chart.yaml"), "test/Chart.yaml"));
+			try (InputStream is = new FileInputStream(f)) {
+				new HelmOciDockerService().sendToRegistry(is, f.getName(), stub.getRegistryInformations(), "charts/test", "1.0");
+			}
+			final String tag = stub.getTags("charts/test").iterator().next();
+			final Matcher m = DIGEST.matcher(stub.getManifest("charts/test", tag).orElseThrow());
+			while (m.find()) {
+				assertTrue(stub.hasBlob("charts/test", m.group()));
+			}
+		}
+	}
+
+	@ParameterizedTest
+	@ValueSource(booleans = { false, true })
+	void helmRepository(final boolean streaming) throws IOException {
+		try (OciRegistryStub stub = new OciRegistryStub().auth(Auth.BASIC, "user", "pass")) {
+			final byte[] tar = TestImages.layer(200_000, 4);
+			final HelmDockerService service = new HelmDockerService(ExecutionMode.PLATFORM, streaming);
+			service.verifyConnection(stub.getRegistryInformations());
+			service.sendToRegistry(new ByteArrayInputStream(tar), "chart.tar", stub.getRegistryInformations(), "test", "1.0");
+			try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(stub.getChart("test-1.0.tgz").orElseThrow()))) {
+				assertArrayEquals(tar, is.readAllBytes());
+			}
+		}
+	}
+
+	@Test
+	void helmRepositoryRequiringLength() {
+		try (OciRegistryStub stub = new OciRegistryStub().requireContentLength()) {
+			final byte[] tar = TestImages.layer(200_000, 5);
+			new HelmDockerService().sendToRegistry(new ByteArrayInputStream(tar), "chart.tar", stub.getRegistryInformations(), "test", "1.0");
+			assertTrue(stub.getChart("test-1.0.tgz").isPresent());
+			final HelmDockerService streaming = new HelmDockerService(ExecutionMode.PLATFORM, true);
+			final RegistryInformations registry = stub.getRegistryInformations();
+			assertThrows(DockerApiException.class, () -> streaming.sendToRegistry(new ByteArrayInputStream(tar), "chart.tar", registry, "test", "2.0"));
+			assertTrue(stub.getChart("test-2.0.tgz").isEmpty());
+		}
+	}
+
+	@Test
+	void callerStreamsLeftOpen() throws IOException {
+		try (OciRegistryStub stub = new OciRegistryStub()) {
+			final File f = new File(tmp, "docker.tar");
+			TestImages.dockerSave(f, layers());
+			final ByteArrayOutputStream bz2 = new ByteArrayOutputStream();
+			try (OutputStream os = new BZip2CompressorOutputStream(bz2)) {
+				Files.copy(f.toPath(), os);
+			}
+			final TrackedInputStream image = new TrackedInputStream(bz2.toByteArray());
+			new JibDockerService().sendToRegistry(image, "docker.tar.bz2", stub.getRegistryInformations(), "test/bz2", "latest");
+			assertFalse(image.closed);
+			assertComplete(stub, "test/bz2", 4);
+			final TrackedInputStream chart = new TrackedInputStream(TestImages.layer(10_000, 6));
+			new HelmDockerService().sendToRegistry(chart, "chart.tar", stub.getRegistryInformations(), "test", "1.0");
+			assertFalse(chart.closed);
+			final File helm = new File(tmp, "chart.tar");
+			OciHelmTarFileTest.createTarFile(helm, new TarArchiveEntry(new File("src/test/resources/Chart.yaml"), "test/Chart.yaml"));
+			final TrackedInputStream ociChart = new TrackedInputStream(Files.readAllBytes(helm.toPath()));
+			new HelmOciDockerService().sendToRegistry(ociChart, helm.getName(), stub.getRegistryInformations(), "charts/test", "1.0");
+			assertFalse(ociChart.closed);
+		}
+	}
+
+	private static class TrackedInputStream extends ByteArrayInputStream {
+		private boolean closed;
+
+		TrackedInputStream(final byte[] content) {
+			super(content);
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+}
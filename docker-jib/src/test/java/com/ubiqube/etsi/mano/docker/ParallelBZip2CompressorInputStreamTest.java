@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+class ParallelBZip2CompressorInputStreamTest {
+
+	@ParameterizedTest
+	@CsvSource({ "0,1,9", "1,1,9", "1000,2,1", "250000,3,1", "1000000,4,1", "2000000,2,9" })
+	void roundTrip(final int size, final int threads, final int level) throws IOException {
+		final byte[] data = sample(size);
+		assertArrayEquals(data, decode(compress(data, level), threads));
+	}
+
+	@Test
+	void concatenatedStreams() throws IOException {
+		final byte[] a = sample(300_000);
+		final byte[] b = sample(150_000);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(compress(a, 1));
+		out.write(compress(b, 2));
+		final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		expected.write(a);
+		expected.write(b);
+		assertArrayEquals(expected.toByteArray(), decode(out.toByteArray(), 3));
+	}
+
+	@Test
+	void notBzip2() {
+		assertThrows(IOException.class, () -> decode(new byte[] { 1, 2, 3, 4 }, 2));
+	}
+
+	@Test
+	void corrupted() throws IOException {
+		final byte[] compressed = compress(sample(300_000), 1);
+		compressed[compressed.length / 2] ^= 0x55;
+		assertThrows(IOException.class, () -> decode(compressed, 2));
+	}
+
+	@Test
+	void streamCrcChecked() throws IOException {
+		final byte[] compressed = compress(sample(300_000), 1);
+		final long bits = (long) compressed.length * 8;
+		long eos = -1;
+		for (int pad = 0; pad < 8; pad++) {
+			if (readBits(compressed, bits - pad - 80, 48) == 0x177245385090L) {
+				eos = bits - pad - 80;
+			}
+		}
+		final long crcBit = eos + 48 + 5;
+		compressed[(int) (crcBit >>> 3)] ^= (byte) (0x80 >>> (crcBit & 7));
+		assertThrows(IOException.class, () -> decode(compressed, 2));
+	}
+
+	@Test
+	void truncated() throws IOException {
+		final byte[] compressed = compress(sample(300_000), 1);
+		final byte[] cut = Arrays.copyOf(compressed, compressed.length - 8);
+		assertThrows(IOException.class, () -> decode(cut, 2));
+	}
+
+	@Test
+	void endlessBlockBounded() {
+		final InputStream garbage = new InputStream() {
+			private final Random rnd = new Random(0);
+			private final byte[] head = { 'B', 'Z', 'h', '9', 0x31, 0x41, 0x59, 0x26, 0x53, 0x59 };
+			private int pos;
+
+			@Override
+			public int read() {
+				return pos < head.length ? head[pos++] : rnd.nextInt(256);
+			}
+
+			@Override
+			public int read(final byte[] b, final int off, final int len) {
+				for (int i = 0; i < len; i++) {
+					b[off + i] = (byte) read();
+				}
+				return len;
+			}
+		};
+		assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+			try (InputStream is = new ParallelBZip2CompressorInputStream(garbage, 2)) {
+				assertThrows(IOException.class, is::readAllBytes);
+			}
+		});
+	}
+
+	private static long readBits(final byte[] src, final long from, final int length) {
+		long ret = 0;
+		for (long i = from; i < (from + length); i++) {
+			ret = (ret << 1) | ((src[(int) (i >>> 3)] >>> (7 - (i & 7))) & 1);
+		}
+		return ret;
+	}
+
+	private static byte[] decode(final byte[] compressed, final int threads) throws IOException {
+		try (InputStream is = new ParallelBZip2CompressorInputStream(new ByteArrayInputStream(compressed), threads)) {
+			return is.readAllBytes();
+		}
+	}
+
+	private static byte[] compress(final byte[] data, final int level) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (OutputStream os = new BZip2CompressorOutputStream(out, level)) {
+			os.write(data);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Compressible, but not trivially.
+	 */
+	private static byte[] sample(final int size) {
+		final Random rnd = new Random(size);
+		final byte[] ret = new byte[size];
+		for (int i = 0; i < size; i++) {
+			ret[i] = (byte) ('a' + rnd.nextInt(1 + (i % 20)));
+		}
+		return ret;
+	}
+}
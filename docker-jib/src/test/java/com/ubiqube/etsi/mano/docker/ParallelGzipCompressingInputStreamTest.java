@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+class ParallelGzipCompressingInputStreamTest {
+
+	@ParameterizedTest
+	@CsvSource({ "0,1", "1,4", "1000,1", "65536,2", "300000,4", "1000000,3" })
+	void roundTrip(final int size, final int threads) throws IOException {
+		final byte[] data = sample(size);
+		final byte[] compressed;
+		try (InputStream gzis = new ParallelGzipCompressingInputStream(new ByteArrayInputStream(data), threads, 64 * 1024, Deflater.DEFAULT_COMPRESSION)) {
+			compressed = gzis.readAllBytes();
+		}
+		try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+			assertArrayEquals(data, is.readAllBytes());
+		}
+	}
+
+	@ParameterizedTest
+	@CsvSource({ "1", "4" })
+	void sameOutputWhateverTheThreads(final int threads) throws IOException {
+		final byte[] data = sample(500_000);
+		try (InputStream ref = new ParallelGzipCompressingInputStream(new ByteArrayInputStream(data), 2, 64 * 1024, Deflater.DEFAULT_COMPRESSION);
+				InputStream gzis = new ParallelGzipCompressingInputStream(new ByteArrayInputStream(data), threads, 64 * 1024, Deflater.DEFAULT_COMPRESSION)) {
+			assertArrayEquals(ref.readAllBytes(), gzis.readAllBytes());
+		}
+	}
+
+	/**
+	 * Half random, half repetitive so that dictionaries matter.
+	 */
+	private static byte[] sample(final int size) {
+		final byte[] data = new byte[size];
+		final Random rnd = new Random(size);
+		for (int i = 0; i < size; i++) {
+			data[i] = (byte) (((i / 4096) % 2) == 0 ? rnd.nextInt(256) : "mano-vnfm-".charAt(i % 10));
+		}
+		return data;
+	}
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class PushMetricsTest {
+	private static final String SERVER = "https://registry.example.com:5000/";
+
+	@Test
+	void stageTimed() {
+		final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+		final PushMetrics metrics = new PushMetrics();
+		metrics.bindTo(meters);
+		assertEquals("done", metrics.time("manifest", SERVER, ArtifactType.OCI, () -> "done"));
+		metrics.run("manifest", SERVER, ArtifactType.OCI, () -> {
+			// Nothing.
+		});
+		final Timer timer = meters.find("mano.docker.push.stage")
+				.tags("stage", "manifest", "registry", "registry.example.com:5000", "type", "oci")
+				.timer();
+		assertNotNull(timer);
+		assertEquals(2, timer.count());
+		assertNull(meters.find("mano.docker.push.failures").counter());
+	}
+
+	@Test
+	void failureCounted() {
+		final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+		final PushMetrics metrics = new PushMetrics();
+		metrics.bindTo(meters);
+		assertThrows(DockerApiException.class, () -> metrics.run("upload", SERVER, ArtifactType.HELM, () -> {
+			throw new DockerApiException("refused");
+		}));
+		final Counter failures = meters.find("mano.docker.push.failures")
+				.tags("stage", "upload", "registry", "registry.example.com:5000", "type", "helm", "exception", "DockerApiException")
+				.counter();
+		assertNotNull(failures);
+		assertEquals(1, failures.count());
+		// The failed stage is still timed.
+		assertEquals(1, meters.find("mano.docker.push.stage").tag("stage", "upload").timer().count());
+	}
+
+	@Test
+	void bytesByResult() {
+		final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+		final PushMetrics metrics = new PushMetrics();
+		metrics.bindTo(meters);
+		metrics.uploaded(SERVER, ArtifactType.DOCKER, 100);
+		metrics.uploaded(SERVER, ArtifactType.DOCKER, 20);
+		metrics.skipped(null, ArtifactType.HELM_OCI, 7);
+		assertEquals(120, meters.find("mano.docker.push.bytes")
+				.tags("result", "uploaded", "registry", "registry.example.com:5000", "type", "docker")
+				.counter().count());
+		assertEquals(7, meters.find("mano.docker.push.bytes")
+				.tags("result", "skipped", "registry", "unknown", "type", "helm_oci")
+				.counter().count());
+	}
+
+	@Test
+	void unbound() {
+		final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+		final PushMetrics metrics = new PushMetrics();
+		metrics.bindTo(meters);
+		metrics.unbind(meters);
+		metrics.uploaded(SERVER, ArtifactType.OCI, 1);
+		assertNull(meters.find("mano.docker.push.bytes").counter());
+	}
+}
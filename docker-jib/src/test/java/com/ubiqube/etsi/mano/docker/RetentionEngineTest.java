@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.ubiqube.etsi.mano.docker.OciRegistryStub.Auth;
+
+class RetentionEngineTest {
+	private static final String REPOSITORY = "mano/app";
+	private static final String MEDIA_TYPE = "application/vnd.oci.image.manifest.v1+json";
+
+	/**
+	 * v1 is 10 days old, v2 5 days, v3 one hour; stable is v1.
+	 */
+	private static OciRegistryStub seed(final OciRegistryStub stub) {
+		final byte[] v1 = image(stub, Duration.ofDays(10));
+		stub.putManifest(REPOSITORY, "v1", MEDIA_TYPE, v1);
+		stub.putManifest(REPOSITORY, "stable", MEDIA_TYPE, v1);
+		stub.putManifest(REPOSITORY, "v2", MEDIA_TYPE, image(stub, Duration.ofDays(5)));
+		stub.putManifest(REPOSITORY, "v3", MEDIA_TYPE, image(stub, Duration.ofHours(1)));
+		return stub;
+	}
+
+	private static byte[] image(final OciRegistryStub stub, final Duration age) {
+		final byte[] config = ("{\"architecture\":\"amd64\",\"os\":\"linux\",\"created\":\"" + Instant.now().minus(age) + "\",\"rootfs\":{\"type\":\"layers\",\"diff_ids\":[]}}").getBytes(StandardCharsets.UTF_8);
+		final String digest = stub.putBlob(REPOSITORY, config);
+		return ("{\"schemaVersion\":2,\"mediaType\":\"" + MEDIA_TYPE + "\",\"config\":{\"mediaType\":\"application/vnd.oci.image.config.v1+json\",\"digest\":\"" + digest + "\",\"size\":" + config.length + "},\"layers\":[]}")
+				.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static RetentionReport apply(final OciRegistryStub stub, final RetentionPolicy policy) {
+		return new RetentionEngine(Registry.of(stub.getRegistryInformations(), REPOSITORY)).apply(policy);
+	}
+
+	@Test
+	void dryRunDeletesNothing() {
+		try (OciRegistryStub stub = seed(new OciRegistryStub())) {
+			final RetentionReport report = apply(stub, RetentionPolicy.builder().keepLast(2).dryRun(true).build());
+			assertEquals(Set.of("stable", "v1"), Set.copyOf(report.deleted()));
+			assertEquals(Set.of("v2", "v3"), Set.copyOf(report.kept()));
+			assertEquals(0, stub.count("DELETE manifest"));
+			assertEquals(4, stub.getTags(REPOSITORY).size());
+		}
+	}
+
+	@Test
+	void sharedManifestIsSkipped() {
+		try (OciRegistryStub stub = seed(new OciRegistryStub())) {
+			final RetentionReport report = apply(stub, RetentionPolicy.builder().keepLast(1).referenced(Set.of("stable")).build());
+			assertEquals(List.of("v2"), report.deleted());
+			assertEquals(List.of("v1"), report.skipped());
+			assertTrue(report.failed().isEmpty());
+			assertEquals(Set.of("stable", "v1", "v3"), stub.getTags(REPOSITORY));
+			assertEquals(1, stub.count("DELETE manifest"));
+		}
+	}
+
+	@Test
+	void olderThanWithBearer() {
+		try (OciRegistryStub stub = seed(new OciRegistryStub().auth(Auth.BEARER, "user", "pass"))) {
+			final RetentionReport report = apply(stub, RetentionPolicy.builder().olderThan(Duration.ofDays(2)).build());
+			assertEquals(Set.of("stable", "v1", "v2"), Set.copyOf(report.deleted()));
+			assertEquals(Set.of("v3"), stub.getTags(REPOSITORY));
+			assertEquals(2, stub.count("DELETE manifest"));
+		}
+	}
+
+	@Test
+	void deleteScopeAskedOnce() {
+		try (OciRegistryStub stub = seed(new OciRegistryStub().auth(Auth.BEARER, "user", "pass").requireDeleteScope())) {
+			stub.putManifest(REPOSITORY, "v0", MEDIA_TYPE, image(stub, Duration.ofDays(20)));
+			final RetentionReport report = apply(stub, RetentionPolicy.builder().keepLast(1).build());
+			assertTrue(report.failed().isEmpty(), report.failed()::toString);
+			assertEquals(Set.of("v3"), stub.getTags(REPOSITORY));
+			assertEquals(1, stub.count("GET delete token"));
+			// The delete token is kept by the session, the next run is not refused.
+			stub.putManifest(REPOSITORY, "v4", MEDIA_TYPE, image(stub, Duration.ofMinutes(1)));
+			final int deletes = stub.count("DELETE manifest");
+			apply(stub, RetentionPolicy.builder().keepLast(1).build());
+			assertEquals(Set.of("v4"), stub.getTags(REPOSITORY));
+			assertEquals(deletes + 1, stub.count("DELETE manifest"));
+			assertEquals(1, stub.count("GET delete token"));
+		}
+	}
+
+	@Test
+	void noRuleKeepsEverything() {
+		try (OciRegistryStub stub = seed(new OciRegistryStub().auth(Auth.BASIC, "user", "pass"))) {
+			final RetentionReport report = apply(stub, RetentionPolicy.builder().build());
+			assertEquals(4, report.kept().size());
+			assertEquals(0, stub.count("DELETE manifest"));
+			Registry.of(stub.getRegistryInformations(), REPOSITORY).deleteManifest("v2");
+			assertEquals(Set.of("stable", "v1", "v3"), stub.getTags(REPOSITORY));
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2019-2025 Ubiqube.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.ubiqube.etsi.mano.docker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+/**
+ * Build small container archives for tests.
+ */
+final class TestImages {
+
+	private TestImages() {
+		// Nothing.
+	}
+
+	/**
+	 * Uncompressed layer content, half random half text so it compresses a bit.
+	 */
+	static byte[] layer(final int size, final long seed) {
+		final Random rnd = new Random(seed);
+		final byte[] ret = new byte[size];
+		rnd.nextBytes(ret);
+		final byte[] text = ("layer-" + seed + " lorem ipsum dolor sit amet ").getBytes(StandardCharsets.UTF_8);
+		for (int i = 0; i < (size / 2); i++) {
+			ret[i] = text[i % text.length];
+		}
+		return ret;
+	}
+
+	static byte[] gzip(final byte[] content) {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (GZIPOutputStream gos = new GZIPOutputStream(baos)) {
+			gos.write(content);
+		} catch (final IOException e) {
+			throw new DockerApiException(e);
+		}
+		return baos.toByteArray();
+	}
+
+	static String config(final List<byte[]> rawLayers, final String arch) {
+		final String diffIds = rawLayers.stream()
+				.map(x -> "\"" + OciRegistryStub.sha256(x) + "\"")
+				.collect(Collectors.joining(","));
+		return "{\"architecture\":\"" + arch + "\",\"os\":\"linux\",\"created\":\"2024-01-01T00:00:00Z\",\"config\":{},\"rootfs\":{\"type\":\"layers\",\"diff_ids\":[" + diffIds + "]}}";
+	}
+
+	/**
+	 * OCI layout, blobs first like {@code docker save} does since Docker 25.
+	 *
+	 * @param platforms One list of raw layers per platform.
+	 */
+	static void ociLayout(final File target, final Map<String, List<byte[]>> platforms) {
+		ociLayout(target, platforms, true);
+	}
+
+	/**
+	 * @param gzip false to store the layers as plain tar.
+	 */
+	static void ociLayout(final File target, final Map<String, List<byte[]>> platforms, final boolean gzip) {
+		final Map<String, byte[]> blobs = new LinkedHashMap<>();
+		final List<String> descriptors = new ArrayList<>();
+		platforms.forEach((arch, rawLayers) -> {
+			final List<String> layerDescriptors = new ArrayList<>();
+			rawLayers.forEach(raw -> {
+				final byte[] blob = gzip ? gzip(raw) : raw;
+				final String digest = OciRegistryStub.sha256(blob);
+				blobs.put(digest, blob);
+				layerDescriptors.add(descriptor(gzip ? "application/vnd.oci.image.layer.v1.tar+gzip" : "application/vnd.oci.image.layer.v1.tar", digest, blob.length, ""));
+			});
+			final byte[] config = config(rawLayers, arch).getBytes(StandardCharsets.UTF_8);
+			final String configDigest = OciRegistryStub.sha256(config);
+			blobs.put(configDigest, config);
+			final byte[] manifest = ("{\"schemaVersion\":2,\"mediaType\":\"application/vnd.oci.image.manifest.v1+json\",\"config\":"
+					+ descriptor("application/vnd.oci.image.config.v1+json", configDigest, config.length, "")
+					+ ",\"layers\":[" + String.join(",", layerDescriptors) + "]}").getBytes(StandardCharsets.UTF_8);
+			final String manifestDigest = OciRegistryStub.sha256(manifest);
+			blobs.put(manifestDigest, manifest);
+			descriptors.add(descriptor("application/vnd.oci.image.manifest.v1+json", manifestDigest, manifest.length,
+					",\"platform\":{\"architecture\":\"" + arch + "\",\"os\":\"linux\"}"));
+		});
+		final String index = "{\"schemaVersion\":2,\"mediaType\":\"application/vnd.oci.image.index.v1+json\",\"manifests\":[" + String.join(",", descriptors) + "]}";
+		try (OutputStream fos = new FileOutputStream(target);
+				TarArchiveOutputStream taos = new TarArchiveOutputStream(fos)) {
+			taos.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+			directory(taos, "blobs/");
+			directory(taos, "blobs/sha256/");
+			for (final Map.Entry<String, byte[]> blob : blobs.entrySet()) {
+				file(taos, "blobs/sha256/" + blob.getKey().substring(7), blob.getValue());
+			}
+			file(taos, "index.json", index.getBytes(StandardCharsets.UTF_8));
+			file(taos, "oci-layout", "{\"imageLayoutVersion\":\"1.0.0\"}".getBytes(StandardCharsets.UTF_8));
+			taos.finish();
+		} catch (final IOException e) {
+			throw new DockerApiException(e);
+		}
+	}
+
+	static void ociLayout(final File target, final List<byte[]> rawLayers) {
+		ociLayout(target, Map.of("amd64", rawLayers));
+	}
+
+	/**
+	 * Legacy {@code docker save} archive with uncompressed layers.
+	 */
+	static void dockerSave(final File target, final List<byte[]> rawLayers) {
+		final byte[] config = config(rawLayers, "amd64").getBytes(StandardCharsets.UTF_8);
+		final String configName = OciRegistryStub.sha256(config).substring(7) + ".json";
+		final List<String> layerFiles = new ArrayList<>();
+		try (OutputStream fos = new FileOutputStream(target);
+				TarArchiveOutputStream taos = new TarArchiveOutputStream(fos)) {
+			for (int i = 0; i < rawLayers.size(); i++) {
+				final String dir = "layer" + i + "/";
+				directory(taos, dir);
+				file(taos, dir + "layer.tar", rawLayers.get(i));
+				layerFiles.add("\"" + dir + "layer.tar\"");
+			}
+			file(taos, configName, config);
+			final String manifest = "[{\"Config\":\"" + configName + "\",\"RepoTags\":[\"test:latest\"],\"Layers\":[" + String.join(",", layerFiles) + "]}]";
+			file(taos, "manifest.json", manifest.getBytes(StandardCharsets.UTF_8));
+			taos.finish();
+		} catch (final IOException e) {
+			throw new DockerApiException(e);
+		}
+	}
+
+	private static String descriptor(final String mediaType, final String digest, final long size, final String extra) {
+		return "{\"mediaType\":\"" + mediaType + "\",\"digest\":\"" + digest + "\",\"size\":" + size + extra + "}";
+	}
+
+	private static void directory(final TarArchiveOutputStream taos, final String name) throws IOException {
+		taos.putArchiveEntry(new TarArchiveEntry(name));
+		taos.closeArchiveEntry();
+	}
+
+	private static void file(final TarArchiveOutputStream taos, final String name, final byte[] content) throws IOException {
+		final TarArchiveEntry entry = new TarArchiveEntry(name);
+		entry.setSize(content.length);
+		taos.putArchiveEntry(entry);
+		taos.write(content);
+		taos.closeArchiveEntry();
+	}
+}